@@ -0,0 +1,47 @@
+package lilytts.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lilytts.StringUtil;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AlphaNumComparatorBenchmark {
+    @Param({ "100", "10000", "1000000" })
+    public int fileCount;
+
+    private List<String> fileNames;
+    private Comparator<CharSequence> comparator;
+
+    @Setup
+    public void setup() {
+        this.fileNames = SyntheticInputs.fileNames(fileCount);
+        this.comparator = StringUtil.alphaNumComparator();
+    }
+
+    @Benchmark
+    public List<String> sortFileNames() {
+        final List<String> sorted = new ArrayList<>(fileNames);
+        sorted.sort(comparator);
+        return sorted;
+    }
+}
@@ -0,0 +1,46 @@
+package lilytts.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lilytts.content.ContentItem;
+import lilytts.processing.ContentSplitter;
+import lilytts.processing.MultiFileContentSplitter;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MultiFileContentSplitterBenchmark {
+    @Param({ "4", "1024", "262144" })
+    public int sizeKb;
+
+    private List<ContentItem> content;
+    private ContentSplitter splitter;
+
+    @Setup
+    public void setup() throws IOException {
+        this.content = SyntheticInputs.content(sizeKb);
+        this.splitter = MultiFileContentSplitter.builder().build();
+    }
+
+    @Benchmark
+    public List<List<ContentItem>> splitContent() {
+        return splitter.splitContent(content);
+    }
+}
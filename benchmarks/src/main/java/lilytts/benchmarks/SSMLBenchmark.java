@@ -0,0 +1,79 @@
+package lilytts.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lilytts.content.ContentItem;
+import lilytts.ssml.SSMLChunk;
+import lilytts.ssml.SSMLSplitter;
+import lilytts.ssml.SSMLWriter;
+import lilytts.synthesis.AzureCostEstimator;
+
+// Covers everything that happens to a file between parsing and synthesis.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SSMLBenchmark {
+    @Param({ "4", "1024", "262144" })
+    public int sizeKb;
+
+    private List<ContentItem> content;
+    private String ssml;
+    private SSMLWriter ssmlWriter;
+    private SSMLSplitter splitter;
+    private AzureCostEstimator costEstimator;
+    private final StringBuilder ssmlBuffer = new StringBuilder();
+
+    @Setup
+    public void setup() throws IOException {
+        this.content = SyntheticInputs.content(sizeKb);
+        this.ssml = SyntheticInputs.ssml(content);
+        this.ssmlWriter = SyntheticInputs.ssmlWriter();
+        this.splitter = new SSMLSplitter();
+        this.costEstimator = new AzureCostEstimator();
+    }
+
+    @Benchmark
+    public String writeSSML() {
+        return ssmlWriter.toSSML(content);
+    }
+
+    // Reuses one buffer, the way TextFileProcessor writes one file after another.
+    @Benchmark
+    public int appendSSML() {
+        ssmlBuffer.setLength(0);
+        ssmlWriter.appendSSML(content, ssmlBuffer);
+        return ssmlBuffer.length();
+    }
+
+    @Benchmark
+    public List<String> splitSSML() {
+        return splitter.splitSSML(ssml);
+    }
+
+    @Benchmark
+    public List<SSMLChunk> splitContent() {
+        return splitter.splitContent(content, ssmlWriter);
+    }
+
+    @Benchmark
+    public double getEstimatedCost() {
+        return costEstimator.getEstimatedCost(ssml);
+    }
+}
@@ -0,0 +1,108 @@
+package lilytts.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import lilytts.content.ContentItem;
+import lilytts.parsing.text.TextContentParser;
+import lilytts.ssml.SSMLWriter;
+
+// Builds inputs which look like the text files the commands read: OCR-style wrapped lines, paragraphs separated by
+// blank lines, and the occasional section break. The same size and seed always produce the same input.
+final class SyntheticInputs {
+    private static final long SEED = 20230101L;
+    private static final int LINE_LENGTH = 72;
+
+    private static final String[] WORDS = new String[] {
+        "the", "of", "and", "to", "a", "in", "was", "he", "she", "that", "it", "her", "his", "had", "with", "for",
+        "as", "at", "on", "not", "but", "said", "they", "from", "be", "would", "could", "there", "one", "all",
+        "house", "morning", "window", "letter", "garden", "river", "silence", "remembered", "carefully", "across",
+        "everything", "afternoon", "believe", "quietly", "mother's", "\"Yes,\"", "\"No.\"", "wasn't", "couldn't",
+        "extraordinary", "Mrs.", "Mr.", "Dr.", "1923", "forty-two", "&", "<", "—", "café", "naïve"
+    };
+
+    private SyntheticInputs() {
+    }
+
+    static String text(int sizeKb) {
+        final Random random = new Random(SEED);
+        final int targetLength = sizeKb * 1024;
+        final StringBuilder text = new StringBuilder(targetLength + 1024);
+
+        text.append("Chapter ").append(random.nextInt(40) + 1).append("\n\n");
+
+        while (text.length() < targetLength) {
+            if (random.nextInt(40) == 0) {
+                text.append("---\n\n");
+                continue;
+            }
+
+            appendParagraph(text, random);
+            text.append("\n\n");
+        }
+
+        return text.toString();
+    }
+
+    static List<ContentItem> content(int sizeKb) throws IOException {
+        return parser().readContent(new StringReader(text(sizeKb)));
+    }
+
+    static String ssml(List<ContentItem> content) {
+        return ssmlWriter().toSSML(content);
+    }
+
+    static TextContentParser parser() {
+        return TextContentParser.builder()
+            .setRecognizeChapter(true)
+            .setRecognizeSectionBreaks(true)
+            .setAppendChapterEnd(true)
+            .build();
+    }
+
+    static SSMLWriter ssmlWriter() {
+        return SSMLWriter.builder()
+            .withVoice("en-US-JennyNeural")
+            .withProsodyRate("-5%")
+            .build();
+    }
+
+    // File names like the ones a book is usually split into, with numbers that sort wrong as plain strings.
+    static List<String> fileNames(int count) {
+        final Random random = new Random(SEED);
+        final List<String> names = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int chapter = random.nextInt(Math.max(1, count / 4)) + 1;
+            final int part = random.nextInt(12) + 1;
+            names.add(String.format("Book %d - Chapter %d part %d.txt", random.nextInt(3) + 1, chapter, part));
+        }
+
+        return names;
+    }
+
+    private static void appendParagraph(StringBuilder text, Random random) {
+        final int wordCount = 20 + random.nextInt(180);
+        int lineLength = 0;
+
+        for (int i = 0; i < wordCount; i++) {
+            final String word = WORDS[random.nextInt(WORDS.length)];
+
+            if (lineLength > 0 && lineLength + word.length() + 1 > LINE_LENGTH) {
+                text.append('\n');
+                lineLength = 0;
+            } else if (lineLength > 0) {
+                text.append(' ');
+                lineLength++;
+            }
+
+            text.append(word);
+            lineLength += word.length();
+        }
+
+        text.append('.');
+    }
+}
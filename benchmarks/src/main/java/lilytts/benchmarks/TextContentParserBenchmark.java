@@ -0,0 +1,62 @@
+package lilytts.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lilytts.content.ContentItem;
+import lilytts.parsing.text.TextContentParser;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TextContentParserBenchmark {
+    @Param({ "4", "1024", "262144" })
+    public int sizeKb;
+
+    private String text;
+    private Path textFile;
+    private TextContentParser parser;
+
+    @Setup
+    public void setup() throws IOException {
+        this.text = SyntheticInputs.text(sizeKb);
+        this.textFile = Files.createTempFile("lilytts-benchmark", ".txt");
+        this.textFile.toFile().deleteOnExit();
+        Files.writeString(textFile, text, StandardCharsets.UTF_8);
+        this.parser = SyntheticInputs.parser();
+    }
+
+    @Benchmark
+    public List<ContentItem> readContent() throws IOException {
+        return parser.readContent(new StringReader(text));
+    }
+
+    // Parses straight from the file and only counts the items, so nothing but the current item is kept.
+    @Benchmark
+    public long streamContent() throws IOException {
+        try (Stream<ContentItem> content = parser.streamContent(textFile, StandardCharsets.UTF_8)) {
+            return content.count();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package lilytts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+import com.mpatric.mp3agic.ID3v24Tag;
+
+import lilytts.audio.AudioFileMerger;
+import lilytts.audio.ConcatenatingAudioFileMerger;
+import lilytts.audio.FFMPEGAudioFileMerger;
+import lilytts.bench.LatencyRecorder;
+import lilytts.bench.SyntheticCorpus;
+import lilytts.content.ChapterTitleContent;
+import lilytts.parsing.ContentParser;
+import lilytts.parsing.text.TextContentParser;
+import lilytts.processing.MetadataContext;
+import lilytts.processing.MetadataGenerator;
+import lilytts.processing.TextFileProcessor;
+import lilytts.progress.ProgressListener;
+import lilytts.ssml.SSMLSplitter;
+import lilytts.ssml.SSMLWriter;
+import lilytts.ssml.SpeechDurationEstimator;
+import lilytts.synthesis.AzureCostEstimator;
+import lilytts.synthesis.ChunkingSpeechSynthesizer;
+import lilytts.synthesis.CompoundSynthesizer;
+import lilytts.synthesis.SimulatedSynthesizer;
+import lilytts.synthesis.SpeechSynthesisException;
+import lilytts.synthesis.SpeechSynthesizer;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+// Runs a generated corpus through the same processing pipeline as the real commands, with a simulated speech service
+// in place of azure, and reports how fast each stage went.
+@Command(name = "bench")
+public class BenchCommand implements Callable<Integer> {
+    public enum MergerKind {
+        Ffmpeg,
+        Concatenate
+    }
+
+    @Option(names = { "--corpus" })
+    private SyntheticCorpus.Kind corpusKind = SyntheticCorpus.Kind.Book;
+
+    @Option(names = { "--files" })
+    private int fileCount = 10;
+
+    @Option(names = { "--file-size-kb" })
+    private int fileSizeKb = 100;
+
+    @Option(names = { "--max-concurrent-chunks" })
+    private int maxConcurrentChunks = 4;
+
+    @Option(names = { "--max-concurrent-files" })
+    private int maxConcurrentFiles = 1;
+
+    @Option(names = { "--chunk-size" })
+    private int maxChunkWeight = 7000;
+
+    @Option(names = { "--chunk-seconds" })
+    private double maxChunkSeconds = 0;
+
+    @Option(names = { "--latency-ms" })
+    private long medianLatencyMillis = 1500;
+
+    @Option(names = { "--latency-spread" })
+    private double latencySpread = 0.5;
+
+    @Option(names = { "--throttle-rate" })
+    private double throttleRate = 0;
+
+    @Option(names = { "--max-requests-per-second" })
+    private double maxRequestsPerSecond = 0;
+
+    @Option(names = { "--error-rate" })
+    private double errorRate = 0;
+
+    @Option(names = { "--merger" })
+    private MergerKind mergerKind = MergerKind.Ffmpeg;
+
+    @Option(names = { "--low-memory" })
+    private boolean lowMemory = false;
+
+    @Option(names = { "--work-dir" })
+    private File workDirectory = null;
+
+    @Option(names = { "--keep" })
+    private boolean keepFiles = false;
+
+    @Override
+    public Integer call() throws Exception {
+        final File workDirectory = this.workDirectory != null ? this.workDirectory : Files.createTempDirectory("lilytts-bench").toFile();
+        final File inputDirectory = new File(workDirectory, "input");
+        final File outputDirectory = new File(workDirectory, "output");
+
+        final SyntheticCorpus corpus = new SyntheticCorpus(corpusKind, fileCount, fileSizeKb, 1);
+        final List<File> inputFiles = corpus.writeFiles(inputDirectory);
+        final long totalCharacters = inputFiles.stream().mapToLong(x -> x.length()).sum();
+
+        System.out.printf("Corpus: %d %s file(s), %d characters, in %s%n", inputFiles.size(), corpusKind, totalCharacters, workDirectory.getPath());
+
+        final LatencyRecorder chunkLatency = new LatencyRecorder();
+        final LatencyRecorder mergeLatency = new LatencyRecorder();
+        final LatencyRecorder taggingLatency = new LatencyRecorder();
+
+        final SpeechSynthesizer simulatedSynthesizer = SimulatedSynthesizer.builder()
+            .withLatency(medianLatencyMillis, latencySpread)
+            .withThrottleRate(throttleRate)
+            .withMaxRequestsPerSecond(maxRequestsPerSecond)
+            .withErrorRate(errorRate)
+            .build();
+
+        final SSMLSplitter.Builder splitterBuilder = SSMLSplitter.builder().withMaxChunkWeight(maxChunkWeight);
+
+        if (maxChunkSeconds > 0) {
+            splitterBuilder.withMaxChunkDuration(maxChunkSeconds, new SpeechDurationEstimator());
+        }
+
+        final SpeechSynthesizer synthesizer = new ChunkingSpeechSynthesizer(
+            CompoundSynthesizer.tryInPriorityOrder(List.of(timeRequests(simulatedSynthesizer, chunkLatency))),
+            splitterBuilder.build(),
+            timeMerges(mergerKind == MergerKind.Ffmpeg ? new FFMPEGAudioFileMerger() : new ConcatenatingAudioFileMerger(), mergeLatency),
+            maxConcurrentChunks);
+
+        final ContentParser contentParser = TextContentParser.builder()
+            .setRecognizeChapter(true)
+            .setRecognizeSectionBreaks(corpusKind == SyntheticCorpus.Kind.Book)
+            .setRecognizeArticlePublisher(corpusKind == SyntheticCorpus.Kind.News)
+            .build();
+
+        final SSMLWriter ssmlWriter = SSMLWriter.builder().withVoice("en-US-JennyNeural").build();
+
+        final MetadataGenerator metadataGenerator = context -> {
+            final long startTime = System.nanoTime();
+
+            final String title = context.getContent().stream()
+                .filter(x -> x instanceof ChapterTitleContent)
+                .map(x -> ((ChapterTitleContent) x).getContent())
+                .findFirst()
+                .orElseGet(() -> StringUtil.removeFileExtension(context.getSourceFile().getName()));
+
+            final ID3v24Tag metadata = new ID3v24Tag();
+            metadata.setArtist("LilyTTS Benchmark");
+            metadata.setAlbum("Benchmark");
+            metadata.setTitle(title);
+            metadata.setTrack(Integer.toString(context.getFileIndex() + 1));
+
+            taggingLatency.record(System.nanoTime() - startTime);
+            return metadata;
+        };
+
+        final TextFileProcessor fileProcessor = new TextFileProcessor(synthesizer, contentParser, ssmlWriter, metadataGenerator, new AzureCostEstimator());
+        fileProcessor.setVerbose(false);
+        fileProcessor.setMaxConcurrentFiles(maxConcurrentFiles);
+        fileProcessor.setLowMemory(lowMemory);
+
+        resetPeakHeapUsage();
+        final long startTime = System.nanoTime();
+
+        try (synthesizer) {
+            fileProcessor.convertTextFiles(inputFiles, outputDirectory);
+        } finally {
+            final double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+
+            System.out.println();
+            System.out.printf("Elapsed time:        %.1f s%n", elapsedSeconds);
+            System.out.printf("Throughput:          %.0f characters/s%n", totalCharacters / elapsedSeconds);
+            System.out.printf("Chunk requests:      %d%n", chunkLatency.getCount());
+            System.out.printf("Chunk latency:       p50 %.0f ms, p95 %.0f ms, p99 %.0f ms%n",
+                chunkLatency.getPercentileMillis(50),
+                chunkLatency.getPercentileMillis(95),
+                chunkLatency.getPercentileMillis(99));
+            System.out.printf("Merge time:          %.0f ms total over %d merge(s)%n", mergeLatency.getTotalMillis(), mergeLatency.getCount());
+            System.out.printf("Tagging time:        %.1f ms total over %d file(s)%n", taggingLatency.getTotalMillis(), taggingLatency.getCount());
+            System.out.printf("Peak heap:           %.1f MB%n", getPeakHeapUsage() / (1024.0 * 1024.0));
+
+            if (!keepFiles && this.workDirectory == null) {
+                deleteRecursively(workDirectory.toPath());
+            }
+        }
+
+        return 0;
+    }
+
+    private static SpeechSynthesizer timeRequests(SpeechSynthesizer inner, LatencyRecorder recorder) {
+        return new SpeechSynthesizer() {
+            @Override
+            public String getDisplayName() {
+                return inner.getDisplayName();
+            }
+
+            @Override
+            public String getOutputFormat() {
+                return inner.getOutputFormat();
+            }
+
+            @Override
+            public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
+                final long startTime = System.nanoTime();
+                inner.synthesizeSsmlToFile(ssml, outputFilePath);
+                recorder.record(System.nanoTime() - startTime);
+            }
+
+            @Override
+            public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+                final long startTime = System.nanoTime();
+                inner.synthesizeSsmlToStream(ssml, outputFilePath, output, listener);
+                recorder.record(System.nanoTime() - startTime);
+            }
+        };
+    }
+
+    private static AudioFileMerger timeMerges(AudioFileMerger inner, LatencyRecorder recorder) {
+        return new AudioFileMerger() {
+            @Override
+            public void mergeAudioFiles(List<File> inputFiles, File outputFile) {
+                final long startTime = System.nanoTime();
+                inner.mergeAudioFiles(inputFiles, outputFile);
+                recorder.record(System.nanoTime() - startTime);
+            }
+
+            @Override
+            public void mergeAudioFiles(List<File> inputFiles, OutputStream output) {
+                final long startTime = System.nanoTime();
+                inner.mergeAudioFiles(inputFiles, output);
+                recorder.record(System.nanoTime() - startTime);
+            }
+        };
+    }
+
+    private static void resetPeakHeapUsage() {
+        ManagementFactory.getMemoryPoolMXBeans().forEach(x -> x.resetPeakUsage());
+    }
+
+    private static long getPeakHeapUsage() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(x -> x.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getPeakUsage)
+            .filter(x -> x != null)
+            .mapToLong(x -> x.getUsed())
+            .sum();
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(x -> x.toFile().delete());
+        }
+    }
+}
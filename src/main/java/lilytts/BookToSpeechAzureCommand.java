@@ -123,7 +123,10 @@ public class BookToSpeechAzureCommand implements Callable<Integer> {
         }
 
         final TextFileProcessor fileProcessor = new TextFileProcessor(synthesizer, contentParser, ssmlWriter, metadataGenerator, azureCostEstimator);
-        fileProcessor.convertTextFiles(chapterFiles, outputDirectory, fileFilter);
+
+        try (synthesizer) {
+            fileProcessor.convertTextFiles(chapterFiles, outputDirectory, fileFilter);
+        }
 
         return 0;
     }
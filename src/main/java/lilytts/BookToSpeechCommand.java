@@ -2,7 +2,11 @@ package lilytts;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -12,6 +16,8 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -22,17 +28,22 @@ import com.mpatric.mp3agic.ID3v24Tag;
 
 import lilytts.content.ChapterTitleContent;
 import lilytts.parsing.ContentParser;
+import lilytts.parsing.text.BlockRule;
 import lilytts.parsing.text.TextContentParser;
 import lilytts.processing.MetadataContext;
 import lilytts.processing.MetadataGenerator;
+import lilytts.processing.SchedulingPolicy;
 import lilytts.processing.TextFileProcessor;
 import lilytts.ssml.SSMLWriter;
 import lilytts.synthesis.AzureCostEstimator;
 import lilytts.synthesis.AzureVoice;
+import lilytts.synthesis.CostBudget;
+import lilytts.synthesis.CostBudgetExceededException;
 import lilytts.synthesis.CostEstimator;
 import lilytts.synthesis.SpeechSynthesizer;
 import lilytts.yaml.AzureSynthesisConfig;
 import lilytts.yaml.BookConfig;
+import lilytts.yaml.TextRuleConfig;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
@@ -55,6 +66,21 @@ public class BookToSpeechCommand implements Callable<Integer> {
     @Option(names = { "--pretend", "-n" } )
     private boolean pretend = false;
 
+    @Option(names = { "--schedule" } )
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.ListOrder;
+
+    @Option(names = { "--max-cost" } )
+    private Double maxCost = null;
+
+    @Option(names = { "--low-memory" } )
+    private boolean lowMemory = false;
+
+    @Option(names = { "--max-concurrent-files" } )
+    private int maxConcurrentFiles = 1;
+
+    @Option(names = { "--input-charset" } )
+    private Charset inputCharset = StandardCharsets.UTF_8;
+
     private AzureVoice voice;
     private int prosodyRate;
     private int pitch;
@@ -63,6 +89,7 @@ public class BookToSpeechCommand implements Callable<Integer> {
     private String bookYear;
     private File coverImageFile;
     private List<File> ignoreFiles;
+    private List<BlockRule> parsingRules;
 
     @Override
     public Integer call() throws Exception {
@@ -70,8 +97,13 @@ public class BookToSpeechCommand implements Callable<Integer> {
         loadBookConfig();
 
         final GlobalConfigHelper configHelper = new GlobalConfigHelper();
+        final CostBudget costBudget = this.maxCost != null ? new CostBudget(this.maxCost) : null;
+        configHelper.setCostBudget(costBudget);
+
+        final TextContentParser.Builder parserBuilder = TextContentParser.builder();
+        this.parsingRules.forEach(parserBuilder::addRule);
 
-        final ContentParser contentParser = TextContentParser.builder().build();
+        final ContentParser contentParser = parserBuilder.build();
         final SSMLWriter ssmlWriter = configureSsmlWriter();
         final SpeechSynthesizer synthesizer = configHelper.setupSpeechSynthesizerFromGlobalConfig();
         final CostEstimator azureCostEstimator = new AzureCostEstimator();
@@ -118,7 +150,20 @@ public class BookToSpeechCommand implements Callable<Integer> {
 
         final TextFileProcessor fileProcessor = new TextFileProcessor(synthesizer, contentParser, ssmlWriter, metadataGenerator, azureCostEstimator);
         fileProcessor.setVerbose(this.pretend);
-        fileProcessor.convertTextFiles(chapterFiles, outputDirectory, fileFilter);
+        fileProcessor.setSchedulingPolicy(this.schedulingPolicy);
+        fileProcessor.setCostBudget(costBudget);
+        fileProcessor.setLowMemory(this.lowMemory);
+        fileProcessor.setMaxConcurrentFiles(this.maxConcurrentFiles);
+        fileProcessor.setInputCharset(this.inputCharset);
+
+        try (synthesizer) {
+            fileProcessor.convertTextFiles(chapterFiles, outputDirectory, fileFilter);
+        } catch (CostBudgetExceededException e) {
+            // Everything converted so far has been saved, so the next run picks up from here.
+            final DecimalFormat costFormatter = new DecimalFormat("$######0.00");
+            System.out.printf("Stopped because the cost budget of %s has been spent. Run again to continue where it stopped.%n", costFormatter.format(this.maxCost));
+            return 1;
+        }
 
         return 0;
     }
@@ -232,6 +277,48 @@ public class BookToSpeechCommand implements Callable<Integer> {
             .stream()
             .map(path -> new File(yamlFile.getParentFile(), path))
             .toList();
+
+        // Parse the rules for recognizing headings, breaks and text to drop.
+        final List<TextRuleConfig> ruleConfigs = Optional.ofNullable(config.getParsing())
+            .map(x -> x.getRules())
+            .orElse(Collections.emptyList());
+
+        this.parsingRules = new ArrayList<>(ruleConfigs.size());
+
+        for (int i = 0; i < ruleConfigs.size(); i++) {
+            this.parsingRules.add(toBlockRule(yamlFile, "parsing.rules[" + i + "]", ruleConfigs.get(i)));
+        }
+    }
+
+    private static BlockRule toBlockRule(File yamlFile, String propertyName, TextRuleConfig ruleConfig) {
+        if (isNullOrEmpty(ruleConfig.getPattern())) {
+            throw missingYamlParam(yamlFile, propertyName + ".pattern");
+        }
+
+        if (ruleConfig.getAction() == null) {
+            throw missingYamlParam(yamlFile, propertyName + ".action");
+        }
+
+        final Pattern pattern;
+
+        try {
+            pattern = Pattern.compile(ruleConfig.getPattern(), ruleConfig.isIgnoreCase() ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": " + propertyName + ".pattern is not a valid regular expression: " + e.getMessage(), e);
+        }
+
+        final BlockRule.Builder ruleBuilder = BlockRule.builder(pattern, ruleConfig.getAction())
+            .withLength(ruleConfig.getMinLength(), ruleConfig.getMaxLength() > 0 ? ruleConfig.getMaxLength() : Integer.MAX_VALUE);
+
+        if (!isNullOrEmpty(ruleConfig.getFirstCharacters())) {
+            ruleBuilder.withFirstCharacters(ruleConfig.getFirstCharacters());
+        }
+
+        try {
+            return ruleBuilder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": " + propertyName + ": " + e.getMessage(), e);
+        }
     }
 
     private static IllegalArgumentException missingYamlParam(File yamlFile, String propertyName) {
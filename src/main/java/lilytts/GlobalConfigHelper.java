@@ -3,7 +3,9 @@ package lilytts;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -12,13 +14,32 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 
 import lilytts.audio.FFMPEGAudioFileMerger;
 import lilytts.ssml.SSMLSplitter;
+import lilytts.ssml.SpeechDurationEstimator;
+import lilytts.synthesis.AzureCostEstimator;
 import lilytts.synthesis.AzureSynthesizer;
+import lilytts.synthesis.BudgetedSpeechSynthesizer;
+import lilytts.synthesis.CachingSpeechSynthesizer;
 import lilytts.synthesis.ChunkingSpeechSynthesizer;
 import lilytts.synthesis.CompoundSynthesizer;
+import lilytts.synthesis.CostBudget;
+import lilytts.synthesis.SimulatedSynthesizer;
 import lilytts.synthesis.SpeechSynthesizer;
+import lilytts.synthesis.SynthesisCache;
+import lilytts.synthesis.SynthesizerConnection;
+import lilytts.yaml.AzureSpeechConnection;
+import lilytts.yaml.ChunkBoundaries;
+import lilytts.yaml.ConnectionMode;
+import lilytts.yaml.SimulatedSpeechConnection;
 import lilytts.yaml.TextToSpeechConfig;
 
 public class GlobalConfigHelper {
+    private CostBudget costBudget = null;
+
+    // Every request the synthesizer sends is charged against the budget. Audio from the synthesis cache is free.
+    public void setCostBudget(CostBudget costBudget) {
+        this.costBudget = costBudget;
+    }
+
     public SpeechSynthesizer setupSpeechSynthesizerFromGlobalConfig() throws JsonMappingException, JsonProcessingException, IOException {
         final File yamlFile = new File(getUserHomeDirectory(), ".lilytts.yaml");
 
@@ -29,12 +50,15 @@ public class GlobalConfigHelper {
         final ObjectMapper yamlMapper = YAMLMapper.builder().build();
         TextToSpeechConfig config = yamlMapper.readValue(Files.readString(yamlFile.toPath()), TextToSpeechConfig.class);
 
-        // Validate azure connection info.
-        if (config.getAzureConnections() == null || config.getAzureConnections().size() < 1) {
+        // Validate azure connection info. Simulated connections can take the place of azure ones for testing.
+        final List<AzureSpeechConnection> azureConnections = config.getAzureConnections() != null ? config.getAzureConnections() : List.of();
+        final List<SimulatedSpeechConnection> simulatedConnections = config.getSimulatedConnections() != null ? config.getSimulatedConnections() : List.of();
+
+        if (azureConnections.isEmpty() && simulatedConnections.isEmpty()) {
             throw missingYamlParam(yamlFile, "azureConnections");
         }
 
-        config.getAzureConnections().stream().forEach(x -> {
+        azureConnections.stream().forEach(x -> {
             if (isNullOrEmpty(x.getServiceRegion())) {
                 throw missingYamlParam(yamlFile, "azureConnections.serviceRegion");
             }
@@ -42,13 +66,131 @@ public class GlobalConfigHelper {
             if (isNullOrEmpty(x.getSubscriptionKey())) {
                 throw missingYamlParam(yamlFile, "azureConnections.subscriptionKey");
             }
+
+            if (x.getWeight() < 1) {
+                throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": azureConnections.weight must be at least 1.");
+            }
+
+            if (x.getMaxConcurrentRequests() < 0) {
+                throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": azureConnections.maxConcurrentRequests must not be negative.");
+            }
+        });
+
+        simulatedConnections.stream().forEach(x -> {
+            if (x.getWeight() < 1) {
+                throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": simulatedConnections.weight must be at least 1.");
+            }
+
+            if (x.getMaxConcurrentRequests() < 0) {
+                throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": simulatedConnections.maxConcurrentRequests must not be negative.");
+            }
         });
 
-        List<AzureSynthesizer> synthesizers = config.getAzureConnections().stream()
-            .map(x -> AzureSynthesizer.fromSubscription(x.getDisplayName(), x.getSubscriptionKey(), x.getServiceRegion()))
-            .toList();
-        
-        return new ChunkingSpeechSynthesizer(CompoundSynthesizer.tryInPriorityOrder(synthesizers), new SSMLSplitter(), new FFMPEGAudioFileMerger());
+        if (config.getMaxConcurrentChunks() < 1) {
+            throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": maxConcurrentChunks must be at least 1.");
+        }
+
+        if (config.getMaxChunkSeconds() < 0) {
+            throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": maxChunkSeconds must not be negative.");
+        }
+
+        if (config.getVoiceCharactersPerSecond() != null && config.getVoiceCharactersPerSecond().values().stream().anyMatch(x -> x == null || x <= 0)) {
+            throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": voiceCharactersPerSecond values must be positive.");
+        }
+
+        if (config.getSynthesisCache() != null) {
+            if (isNullOrEmpty(config.getSynthesisCache().getDirectory())) {
+                throw missingYamlParam(yamlFile, "synthesisCache.directory");
+            }
+
+            if (config.getSynthesisCache().getMaxSizeMegabytes() < 1) {
+                throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": synthesisCache.maxSizeMegabytes must be at least 1.");
+            }
+        }
+
+        if (config.getHedging() != null) {
+            final double latencyPercentile = config.getHedging().getLatencyPercentile();
+            final double maxHedgedRequestRatio = config.getHedging().getMaxHedgedRequestRatio();
+
+            if (latencyPercentile <= 0 || latencyPercentile >= 100) {
+                throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": hedging.latencyPercentile must be between 0 and 100.");
+            }
+
+            if (maxHedgedRequestRatio <= 0 || maxHedgedRequestRatio > 1) {
+                throw new IllegalArgumentException("Error in " + yamlFile.getPath() + ": hedging.maxHedgedRequestRatio must be above 0 and at most 1.");
+            }
+        }
+
+        final List<SynthesizerConnection> connections = new ArrayList<>();
+
+        azureConnections.stream()
+            .map(x -> new SynthesizerConnection(
+                AzureSynthesizer.fromSubscription(
+                    x.getDisplayName(),
+                    x.getSubscriptionKey(),
+                    x.getServiceRegion(),
+                    x.getMaxConcurrentRequests() > 0 ? x.getMaxConcurrentRequests() : config.getMaxConcurrentChunks()),
+                x.getWeight(),
+                x.getMaxConcurrentRequests()))
+            .forEach(connections::add);
+
+        simulatedConnections.stream()
+            .map(x -> new SynthesizerConnection(
+                SimulatedSynthesizer.builder()
+                    .withDisplayName(isNullOrEmpty(x.getDisplayName()) ? "Simulated speech service" : x.getDisplayName())
+                    .withLatency(x.getMedianLatencyMillis(), x.getLatencySpread())
+                    .withThrottleRate(x.getThrottleRate())
+                    .withMaxRequestsPerSecond(x.getMaxRequestsPerSecond())
+                    .withErrorRate(x.getErrorRate())
+                    .withCharactersPerSecond(x.getCharactersPerSecond())
+                    .build(),
+                x.getWeight(),
+                x.getMaxConcurrentRequests()))
+            .forEach(connections::add);
+
+        final CompoundSynthesizer compoundSynthesizer = config.getConnectionMode() == ConnectionMode.LoadBalance
+            ? CompoundSynthesizer.balanceLoad(connections)
+            : CompoundSynthesizer.tryInPriorityOrder(connections.stream().map(x -> x.getSynthesizer()).toList());
+
+        if (config.getHedging() != null) {
+            compoundSynthesizer.enableHedging(config.getHedging().getLatencyPercentile(), config.getHedging().getMaxHedgedRequestRatio());
+        }
+
+        SpeechSynthesizer chunkSynthesizer = compoundSynthesizer;
+
+        if (costBudget != null) {
+            // Hedged copies are sent below the budgeted synthesizer, so the compound synthesizer charges for them.
+            compoundSynthesizer.setCostBudget(costBudget, new AzureCostEstimator());
+            chunkSynthesizer = new BudgetedSpeechSynthesizer(chunkSynthesizer, costBudget, new AzureCostEstimator());
+        }
+
+        if (config.getSynthesisCache() != null) {
+            final SynthesisCache cache = new SynthesisCache(
+                resolveHomeDirectory(config.getSynthesisCache().getDirectory()),
+                config.getSynthesisCache().getMaxSizeMegabytes() * 1024 * 1024);
+
+            chunkSynthesizer = new CachingSpeechSynthesizer(chunkSynthesizer, cache);
+        }
+
+        final SSMLSplitter.Builder splitterBuilder = SSMLSplitter.builder();
+
+        if (config.getChunkBoundaries() == ChunkBoundaries.ContentDefined) {
+            splitterBuilder.withContentDefinedBoundaries();
+        }
+
+        if (config.getMaxChunkSeconds() > 0) {
+            splitterBuilder.withMaxChunkDuration(
+                config.getMaxChunkSeconds(),
+                new SpeechDurationEstimator(
+                    SpeechDurationEstimator.DEFAULT_CHARACTERS_PER_SECOND,
+                    config.getVoiceCharactersPerSecond() != null ? config.getVoiceCharactersPerSecond() : Map.of()));
+        }
+
+        return new ChunkingSpeechSynthesizer(
+            chunkSynthesizer,
+            splitterBuilder.build(),
+            new FFMPEGAudioFileMerger(),
+            config.getMaxConcurrentChunks());
     }
 
     private static IllegalArgumentException missingYamlParam(File yamlFile, String propertyName) {
@@ -60,6 +202,15 @@ public class GlobalConfigHelper {
         return value == null || value.isEmpty();
     }
 
+    // Lets paths in the config file start with ~ for the user's home directory.
+    private static File resolveHomeDirectory(String path) {
+        if (path.equals("~") || path.startsWith("~/")) {
+            return new File(getUserHomeDirectory(), path.substring(1));
+        }
+
+        return new File(path);
+    }
+
     // TODO: Move this method to a shared location.
     private static File getUserHomeDirectory() {
         return new File(System.getProperty("user.home"));
@@ -27,43 +27,41 @@ public class MergeLinesCommand implements Callable<Integer> {
             .toList();
 
         for (File textFile : textFiles) {
-            final BufferedReader reader = new BufferedReader(new FileReader(textFile));
             StringBuilder result = new StringBuilder();
-            
-            String nextLine = reader.readLine();
 
-            while (nextLine != null) {
-                // Separate blocks by an empty line.
-                if (result.length() > 0) {
-                    result.append(System.lineSeparator());
-                    result.append(System.lineSeparator());
-                }
-
-                // Skip any blank lines at the beginning of the block.
-                while (nextLine != null && nextLine.isBlank()) {
-                    nextLine = reader.readLine();
-                }
+            try (BufferedReader reader = new BufferedReader(new FileReader(textFile))) {
+                String nextLine = reader.readLine();
 
-                boolean firstLine = true;
+                while (nextLine != null) {
+                    // Separate blocks by an empty line.
+                    if (result.length() > 0) {
+                        result.append(System.lineSeparator());
+                        result.append(System.lineSeparator());
+                    }
 
-                while (nextLine != null && !nextLine.isBlank()) {
-                    // Separate lines by a space.
-                    if (!firstLine) {
-                        result.append(' ');
+                    // Skip any blank lines at the beginning of the block.
+                    while (nextLine != null && nextLine.isBlank()) {
+                        nextLine = reader.readLine();
                     }
 
-                    result.append(nextLine.trim());
-                    nextLine = reader.readLine();
-                    firstLine = false;
-                }
-            }
+                    boolean firstLine = true;
 
-            reader.close();
+                    while (nextLine != null && !nextLine.isBlank()) {
+                        // Separate lines by a space.
+                        if (!firstLine) {
+                            result.append(' ');
+                        }
 
-            BufferedWriter out = new BufferedWriter(new FileWriter(textFile));
+                        result.append(nextLine.trim());
+                        nextLine = reader.readLine();
+                        firstLine = false;
+                    }
+                }
+            }
 
-            out.write(result.toString());
-            out.close();
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(textFile))) {
+                out.write(result.toString());
+            }
         }
 
         return 0;
@@ -2,17 +2,25 @@ package lilytts;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
+import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.mpatric.mp3agic.ID3v24Tag;
 
@@ -22,10 +30,13 @@ import lilytts.parsing.ContentParser;
 import lilytts.parsing.text.TextContentParser;
 import lilytts.processing.MetadataContext;
 import lilytts.processing.MetadataGenerator;
+import lilytts.processing.SchedulingPolicy;
 import lilytts.processing.TextFileProcessor;
 import lilytts.ssml.SSMLWriter;
 import lilytts.synthesis.AzureCostEstimator;
 import lilytts.synthesis.AzureNewsVoice;
+import lilytts.synthesis.CostBudget;
+import lilytts.synthesis.CostBudgetExceededException;
 import lilytts.synthesis.SpeechSynthesizer;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -35,6 +46,8 @@ import static lilytts.StringUtil.substringBefore;
 
 @Command(name = "news-to-speech")
 public class NewsToSpeechCommand implements Callable<Integer> {
+    private static final Pattern PRIORITY_COMMENT_PATTERN = Pattern.compile("#.*\\bpriority\\s*=\\s*(-?\\d+)");
+
     @Parameters(index = "0")
     private File inputDirectoryOrFile;
 
@@ -68,11 +81,31 @@ public class NewsToSpeechCommand implements Callable<Integer> {
     @Option(names = { "--ignore" } )
     private List<File> ignoreFiles = Collections.emptyList();
 
+    @Option(names = { "--schedule" } )
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.ListOrder;
+
+    @Option(names = { "--max-cost" } )
+    private Double maxCost = null;
+
+    @Option(names = { "--low-memory" } )
+    private boolean lowMemory = false;
+
+    @Option(names = { "--max-concurrent-files" } )
+    private int maxConcurrentFiles = 1;
+
+    @Option(names = { "--input-charset" } )
+    private Charset inputCharset = StandardCharsets.UTF_8;
+
+    // Set by a "# priority=N" comment after a file in the input file list.
+    private final Map<File, Integer> articlePriorities = new HashMap<>();
+
     @Override
     public Integer call() throws Exception {
         validateCommandLineParameters();
 
         final GlobalConfigHelper configHelper = new GlobalConfigHelper();
+        final CostBudget costBudget = this.maxCost != null ? new CostBudget(this.maxCost) : null;
+        configHelper.setCostBudget(costBudget);
 
         final ContentParser contentParser = TextContentParser.builder().setRecognizeArticlePublisher(true).build();
         final SSMLWriter ssmlWriter = configureSsmlWriter();
@@ -118,7 +151,21 @@ public class NewsToSpeechCommand implements Callable<Integer> {
 
         final TextFileProcessor fileProcessor = new TextFileProcessor(synthesizer, contentParser, ssmlWriter, metadataGenerator, azureCostEstimator);
         fileProcessor.setVerbose(this.pretend);
-        fileProcessor.convertTextFiles(articleFiles, albumTargetFolder, (file) -> !this.pretend);
+        fileProcessor.setSchedulingPolicy(this.schedulingPolicy);
+        fileProcessor.setCostBudget(costBudget);
+        fileProcessor.setLowMemory(this.lowMemory);
+        fileProcessor.setMaxConcurrentFiles(this.maxConcurrentFiles);
+        fileProcessor.setInputCharset(this.inputCharset);
+        fileProcessor.setFilePriorities(this.articlePriorities);
+
+        try (synthesizer) {
+            fileProcessor.convertTextFiles(articleFiles, albumTargetFolder, (file) -> !this.pretend);
+        } catch (CostBudgetExceededException e) {
+            // Everything converted so far has been saved, so the next run picks up from here.
+            final DecimalFormat costFormatter = new DecimalFormat("$######0.00");
+            System.out.printf("Stopped because the cost budget of %s has been spent. Run again with --resume to continue where it stopped.%n", costFormatter.format(this.maxCost));
+            return 1;
+        }
 
         if (this.pretend || this.archiveDirectory == null || articleFiles.isEmpty()) {
             return 0;
@@ -263,13 +310,24 @@ public class NewsToSpeechCommand implements Callable<Integer> {
         } else {
             System.out.printf("Input file list: %s%n", this.inputDirectoryOrFile.getPath());
             
-            List<File> results = Files.readAllLines(this.inputDirectoryOrFile.toPath())
-                .stream()
-                .map(line -> line.trim())
-                .map(line -> substringBefore(line, "#"))
-                .filter(line -> !line.isBlank())
-                .map(path -> new File(path))
-                .toList();
+            final List<File> results = new ArrayList<>();
+
+            for (String line : Files.readAllLines(this.inputDirectoryOrFile.toPath())) {
+                final String path = substringBefore(line, "#").trim();
+
+                if (path.isBlank()) {
+                    continue;
+                }
+
+                final File file = new File(path);
+                results.add(file);
+
+                final Integer priority = parsePriority(line);
+
+                if (priority != null) {
+                    this.articlePriorities.put(file, priority);
+                }
+            }
 
             results.stream()
                 .filter(file -> !file.exists() || file.isDirectory())
@@ -281,4 +339,10 @@ public class NewsToSpeechCommand implements Callable<Integer> {
             return results;
         }
     }
+
+    // Returns the priority from a "# priority=N" comment on a line of the input file list, or null if it has none.
+    static Integer parsePriority(String line) {
+        final Matcher priorityMatcher = PRIORITY_COMMENT_PATTERN.matcher(line);
+        return priorityMatcher.find() ? Integer.parseInt(priorityMatcher.group(1)) : null;
+    }
 }
@@ -10,7 +10,8 @@ import picocli.CommandLine.Command;
     BookToSpeechAzureCommand.class,
     MergeLinesCommand.class,
     NewsToSpeechCommand.class,
-    FindArticlesCommand.class
+    FindArticlesCommand.class,
+    BenchCommand.class
 })
 public class RootCommand implements Callable<Integer> {
     @Override
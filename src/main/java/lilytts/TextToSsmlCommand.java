@@ -1,13 +1,13 @@
 package lilytts;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.concurrent.Callable;
 
-import javax.xml.stream.XMLOutputFactory;
-
 import lilytts.content.ContentItem;
 import lilytts.parsing.ContentParser;
 import lilytts.parsing.text.TextContentParser;
@@ -38,13 +38,14 @@ public class TextToSsmlCommand implements Callable<Integer> {
 
         final ContentParser contentParser = TextContentParser.builder().build();
         final SSMLWriter ssmlWriter = configureSsmlWriter();
-        final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
         final ContentSplitter splitter = configureSplitter();
 
         for (File inputFile : inputFiles) {
-            final FileReader inputStream = new FileReader(inputFile);
+            final List<ContentItem> content;
 
-            final List<ContentItem> content = contentParser.readContent(inputStream);
+            try (FileReader inputStream = new FileReader(inputFile)) {
+                content = contentParser.readContent(inputStream);
+            }
             final List<List<ContentItem>> chunks = splitter.splitContent(content);
 
             for (int i = 0; i < chunks.size(); i++) {
@@ -52,9 +53,9 @@ public class TextToSsmlCommand implements Callable<Integer> {
                     removeFileExtension(inputFile.getName()) + " (Part " + (i+1) + ").xml" :
                     removeFileExtension(inputFile.getName()) + ".xml";
 
-                final FileOutputStream outputStream = new FileOutputStream(new File(outputDirectory, outputFileName));
-
-                ssmlWriter.writeSSML(chunks.get(i), xmlOutputFactory.createXMLStreamWriter(outputStream));
+                try (Writer outputWriter = Files.newBufferedWriter(new File(outputDirectory, outputFileName).toPath(), StandardCharsets.UTF_8)) {
+                    ssmlWriter.writeSSML(chunks.get(i), outputWriter);
+                }
             }
         }
 
@@ -1,8 +1,29 @@
 package lilytts.audio;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.List;
 
 public interface AudioFileMerger {
     void mergeAudioFiles(List<File> inputFiles, File outputFile);
-}
\ No newline at end of file
+
+    // Writes the merged audio to a stream. Mergers which can only write files go through a temporary file.
+    default void mergeAudioFiles(List<File> inputFiles, OutputStream output) {
+        try {
+            final File mergedFile = File.createTempFile("lilytts_merged_audio", ".mp3");
+
+            try {
+                // The merger expects to create the file itself.
+                mergedFile.delete();
+                mergeAudioFiles(inputFiles, mergedFile);
+                Files.copy(mergedFile.toPath(), output);
+            } finally {
+                mergedFile.delete();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error when attempting to merge audio files: " + e.getMessage(), e);
+        }
+    }
+}
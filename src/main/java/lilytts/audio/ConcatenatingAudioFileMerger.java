@@ -0,0 +1,33 @@
+package lilytts.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+// Joins MP3 files by appending their frames one after another. Only safe for files without their own ID3 tags or
+// Xing headers, like the raw audio the speech services return, but doesn't need ffmpeg installed.
+public class ConcatenatingAudioFileMerger implements AudioFileMerger {
+
+    @Override
+    public void mergeAudioFiles(List<File> inputFiles, File outputFile) {
+        try (OutputStream output = new FileOutputStream(outputFile)) {
+            mergeAudioFiles(inputFiles, output);
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error when attempting to merge audio files: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void mergeAudioFiles(List<File> inputFiles, OutputStream output) {
+        try {
+            for (File file : inputFiles) {
+                Files.copy(file.toPath(), output);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error when attempting to merge audio files: " + e.getMessage(), e);
+        }
+    }
+}
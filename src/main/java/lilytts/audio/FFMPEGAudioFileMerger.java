@@ -2,10 +2,12 @@ package lilytts.audio;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.List;
 
@@ -48,6 +50,60 @@ public class FFMPEGAudioFileMerger implements AudioFileMerger {
         }
     }
 
+    @Override
+    public void mergeAudioFiles(List<File> inputFiles, OutputStream output) {
+        try {
+            final File indexFile = File.createTempFile("lilytts_ffmpeg_file_list", ".txt");
+            final File logFile = File.createTempFile("lilytts_ffmpeg_log", ".txt");
+
+            writeIndexFile(indexFile, inputFiles);
+
+            // Pipe the merged audio out of stdout. The caller writes its own tags, so leave out ffmpeg's ID3 and Xing
+            // headers (which can't be patched up on a pipe anyway).
+            ProcessBuilder processBuilder = new ProcessBuilder(
+                "ffmpeg",
+                "-f",
+                "concat",
+                "-safe",
+                "0",
+                "-i",
+                indexFile.getAbsolutePath(),
+                "-c",
+                "copy",
+                "-f",
+                "mp3",
+                "-id3v2_version",
+                "0",
+                "-write_xing",
+                "0",
+                "pipe:1");
+
+            // Send the log to a file so a full stderr pipe can't stall the process.
+            processBuilder.redirectError(logFile);
+
+            final Process process = processBuilder.start();
+
+            try (InputStream audio = process.getInputStream()) {
+                audio.transferTo(output);
+            }
+
+            final int exitCode = process.waitFor();
+
+            if (exitCode != 0) {
+                try (InputStream log = new FileInputStream(logFile)) {
+                    printTextFromStream(log);
+                }
+
+                throw new RuntimeException("External call to ffmpeg terminated with exit code " + exitCode + ".\n\nFull command: \n\n" + String.join(" | ", processBuilder.command()));
+            }
+
+            indexFile.delete();
+            logFile.delete();
+        } catch (IOException|InterruptedException e) {
+            throw new RuntimeException("Unexpected error when attempting to merge audio files: " + e.getMessage(), e);
+        }
+    }
+
     private void writeIndexFile(File indexFile, List<File> inputFiles) throws FileNotFoundException {
         try (PrintWriter writer = new PrintWriter(indexFile)) {
             for (File file : inputFiles) {
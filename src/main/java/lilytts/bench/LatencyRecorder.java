@@ -0,0 +1,40 @@
+package lilytts.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Collects how long each call to some stage took, from any thread.
+public class LatencyRecorder {
+    private final List<Long> durationsNanos = new ArrayList<>();
+
+    public synchronized void record(long durationNanos) {
+        durationsNanos.add(durationNanos);
+    }
+
+    public synchronized int getCount() {
+        return durationsNanos.size();
+    }
+
+    public synchronized double getTotalMillis() {
+        return toMillis(durationsNanos.stream().mapToLong(x -> x).sum());
+    }
+
+    // Nearest-rank percentile, or 0 if nothing was recorded.
+    public synchronized double getPercentileMillis(double percentile) {
+        if (durationsNanos.isEmpty()) {
+            return 0;
+        }
+
+        final List<Long> sorted = new ArrayList<>(durationsNanos);
+        Collections.sort(sorted);
+
+        final int rank = (int)Math.ceil(percentile / 100.0 * sorted.size());
+        return toMillis(sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1))));
+    }
+
+    private static double toMillis(long nanos) {
+        return (double)nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
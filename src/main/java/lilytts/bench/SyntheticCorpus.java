@@ -0,0 +1,106 @@
+package lilytts.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Writes text files shaped like the input to the book-to-speech and news-to-speech commands. The same settings always
+// produce the same files.
+public class SyntheticCorpus {
+    public enum Kind {
+        Book,
+        News
+    }
+
+    private static final int LINE_LENGTH = 72;
+
+    private static final String[] WORDS = new String[] {
+        "the", "of", "and", "to", "a", "in", "was", "he", "she", "that", "it", "her", "his", "had", "with", "for",
+        "as", "at", "on", "not", "but", "said", "they", "from", "be", "would", "could", "there", "one", "all",
+        "house", "morning", "window", "letter", "garden", "river", "silence", "remembered", "carefully", "across",
+        "everything", "afternoon", "believe", "quietly", "mother's", "\"Yes,\"", "\"No.\"", "wasn't", "couldn't",
+        "extraordinary", "Mrs.", "Mr.", "Dr.", "1923", "forty-two", "&", "café"
+    };
+
+    private static final String[] PUBLISHERS = new String[] { "The Morning Post", "Weekly Review", "City Ledger" };
+
+    private final Kind kind;
+    private final int fileCount;
+    private final int fileSizeKb;
+    private final long seed;
+
+    public SyntheticCorpus(Kind kind, int fileCount, int fileSizeKb, long seed) {
+        if (fileCount < 1 || fileSizeKb < 1) {
+            throw new IllegalArgumentException("fileCount and fileSizeKb must be at least 1.");
+        }
+
+        this.kind = kind;
+        this.fileCount = fileCount;
+        this.fileSizeKb = fileSizeKb;
+        this.seed = seed;
+    }
+
+    public List<File> writeFiles(File directory) throws IOException {
+        final Random random = new Random(seed);
+        final List<File> files = new ArrayList<>(fileCount);
+
+        Files.createDirectories(directory.toPath());
+
+        for (int i = 0; i < fileCount; i++) {
+            final File file = new File(directory, String.format("%s %d.txt", kind == Kind.Book ? "Chapter" : "Article", i + 1));
+            Files.writeString(file.toPath(), generateText(random, i), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    private String generateText(Random random, int fileIndex) {
+        final int targetLength = fileSizeKb * 1024;
+        final StringBuilder text = new StringBuilder(targetLength + 1024);
+
+        if (kind == Kind.Book) {
+            text.append("Chapter ").append(fileIndex + 1).append("\n\n");
+        } else {
+            text.append("Article ").append(fileIndex + 1).append(": ");
+            appendWords(text, random, 6 + random.nextInt(6));
+            text.append("\n\n");
+            text.append("Published March 3 by ").append(PUBLISHERS[random.nextInt(PUBLISHERS.length)]).append(".\n\n");
+        }
+
+        while (text.length() < targetLength) {
+            if (kind == Kind.Book && random.nextInt(40) == 0) {
+                text.append("---\n\n");
+                continue;
+            }
+
+            appendWords(text, random, 20 + random.nextInt(180));
+            text.append(".\n\n");
+        }
+
+        return text.toString();
+    }
+
+    private static void appendWords(StringBuilder text, Random random, int wordCount) {
+        int lineLength = 0;
+
+        for (int i = 0; i < wordCount; i++) {
+            final String word = WORDS[random.nextInt(WORDS.length)];
+
+            if (lineLength > 0 && lineLength + word.length() + 1 > LINE_LENGTH) {
+                text.append('\n');
+                lineLength = 0;
+            } else if (lineLength > 0) {
+                text.append(' ');
+                lineLength++;
+            }
+
+            text.append(word);
+            lineLength += word.length();
+        }
+    }
+}
@@ -16,4 +16,9 @@ public class ArticlePublisherContent extends ContentItem {
     public String getPublisher() {
         return publisher;
     }
+
+    @Override
+    public void accept(ContentVisitor visitor) {
+        visitor.visitArticlePublisher(this);
+    }
 }
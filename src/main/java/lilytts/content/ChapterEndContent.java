@@ -1,4 +1,8 @@
 package lilytts.content;
 
 public class ChapterEndContent extends ContentItem {
+    @Override
+    public void accept(ContentVisitor visitor) {
+        visitor.visitChapterEnd(this);
+    }
 }
@@ -10,4 +10,9 @@ public class ChapterTitleContent extends ContentItem {
     public String getContent() {
         return this.content;
     }
+
+    @Override
+    public void accept(ContentVisitor visitor) {
+        visitor.visitChapterTitle(this);
+    }
 }
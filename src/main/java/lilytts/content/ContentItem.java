@@ -1,5 +1,5 @@
 package lilytts.content;
 
 public abstract class ContentItem {
-    
+    public abstract void accept(ContentVisitor visitor);
 }
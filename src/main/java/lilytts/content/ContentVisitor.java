@@ -0,0 +1,13 @@
+package lilytts.content;
+
+public interface ContentVisitor {
+    void visitChapterTitle(ChapterTitleContent item);
+
+    void visitParagraph(ParagraphContent item);
+
+    void visitSectionBreak(SectionBreakContent item);
+
+    void visitChapterEnd(ChapterEndContent item);
+
+    void visitArticlePublisher(ArticlePublisherContent item);
+}
@@ -10,4 +10,9 @@ public class ParagraphContent extends ContentItem {
     public String getContent() {
         return this.content;
     }
+
+    @Override
+    public void accept(ContentVisitor visitor) {
+        visitor.visitParagraph(this);
+    }
 }
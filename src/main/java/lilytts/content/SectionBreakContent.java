@@ -18,4 +18,9 @@ public class SectionBreakContent extends ContentItem {
     public void setSectionTitle(String sectionTitle) {
         this.sectionTitle = sectionTitle;
     }
+
+    @Override
+    public void accept(ContentVisitor visitor) {
+        visitor.visitSectionBreak(this);
+    }
 }
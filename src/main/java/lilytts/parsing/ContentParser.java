@@ -1,11 +1,25 @@
 package lilytts.parsing;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.stream.Stream;
 
 import lilytts.content.ContentItem;
 
 public interface ContentParser {
     List<ContentItem> readContent(Reader input) throws IOException;
+
+    // Reads the file with the given charset. Parsers which can parse lazily return items as they are read, so the
+    // whole file is never in memory at once. The stream has to be closed.
+    default Stream<ContentItem> streamContent(Path inputFile, Charset charset) throws IOException {
+        // Malformed input is replaced rather than failing, the same as with a FileReader.
+        try (Reader input = new InputStreamReader(Files.newInputStream(inputFile), charset)) {
+            return readContent(input).stream();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package lilytts.parsing.text;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import lilytts.content.ContentItem;
+import lilytts.content.ParagraphContent;
+
+// Picks the first rule which matches a block. Rules are indexed by the characters they can start with, so each block
+// is only tried against the rules for its first character plus the rules which can start with anything. Most blocks
+// are plain paragraphs starting with a letter no rule is interested in, and get past without running any regex.
+class BlockClassifier {
+    private static final BlockRule[] NO_RULES = new BlockRule[0];
+    private static final int ASCII_SIZE = 128;
+
+    private final BlockRule[][] asciiCandidates = new BlockRule[ASCII_SIZE][];
+    private final Map<Character, BlockRule[]> otherCandidates = new HashMap<>();
+    private final BlockRule[] anyCandidates;
+
+    BlockClassifier(List<BlockRule> rules) {
+        final List<BlockRule> anyRules = new ArrayList<>();
+
+        for (BlockRule rule : rules) {
+            if (rule.getFirstCharacters() == null) {
+                anyRules.add(rule);
+            }
+        }
+
+        this.anyCandidates = anyRules.toArray(NO_RULES);
+
+        // Each list of candidates keeps the rules in their original order, so the first rule still wins.
+        final Map<Character, List<BlockRule>> candidatesByCharacter = new HashMap<>();
+
+        for (BlockRule rule : rules) {
+            if (rule.getFirstCharacters() == null) {
+                for (List<BlockRule> candidates : candidatesByCharacter.values()) {
+                    candidates.add(rule);
+                }
+
+                continue;
+            }
+
+            rule.getFirstCharacters().chars().distinct().forEach(c ->
+                candidatesByCharacter.computeIfAbsent((char)c, x -> new ArrayList<>(anyRulesBefore(rules, rule))).add(rule));
+        }
+
+        for (int c = 0; c < ASCII_SIZE; c++) {
+            asciiCandidates[c] = anyCandidates;
+        }
+
+        candidatesByCharacter.forEach((c, candidates) -> {
+            final BlockRule[] candidateArray = candidates.toArray(NO_RULES);
+
+            if (c < ASCII_SIZE) {
+                asciiCandidates[c] = candidateArray;
+            } else {
+                otherCandidates.put(c, candidateArray);
+            }
+        });
+    }
+
+    // Returns the content for the block, or null if a rule drops it.
+    ContentItem classify(String block) {
+        final char firstCharacter = block.charAt(0);
+        final BlockRule[] candidates = firstCharacter < ASCII_SIZE
+            ? asciiCandidates[firstCharacter]
+            : otherCandidates.getOrDefault(firstCharacter, anyCandidates);
+
+        for (BlockRule rule : candidates) {
+            final Matcher matcher = rule.match(block);
+
+            if (matcher != null) {
+                return rule.toContent(block, matcher);
+            }
+        }
+
+        return new ParagraphContent(block);
+    }
+
+    // The rules without first characters which come before the given rule, which every new list of candidates starts with.
+    private static List<BlockRule> anyRulesBefore(List<BlockRule> rules, BlockRule rule) {
+        final List<BlockRule> anyRules = new ArrayList<>();
+
+        for (BlockRule other : rules) {
+            if (other == rule) {
+                break;
+            }
+
+            if (other.getFirstCharacters() == null) {
+                anyRules.add(other);
+            }
+        }
+
+        return anyRules;
+    }
+}
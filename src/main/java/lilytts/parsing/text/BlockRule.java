@@ -0,0 +1,155 @@
+package lilytts.parsing.text;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lilytts.content.ArticlePublisherContent;
+import lilytts.content.ChapterTitleContent;
+import lilytts.content.ContentItem;
+import lilytts.content.SectionBreakContent;
+
+// Recognizes blocks of text which aren't ordinary paragraphs. A rule matches a block if its pattern matches the whole
+// block. The first characters and length limits are checked before the pattern, and TextContentParser only tries
+// rules whose first characters fit the block, so rules which give their first characters cost almost nothing for the
+// blocks they can't match.
+public class BlockRule {
+    public enum Action {
+        // A chapter heading. The "title" group, if the pattern has one, is the title; otherwise the whole block is.
+        ChapterTitle,
+
+        // A section break. The "title" group, if the pattern has one, is the section title.
+        SectionBreak,
+
+        // A line naming the publisher of an article, from the "publisher" group.
+        ArticlePublisher,
+
+        // Text which shouldn't be read, like page numbers or boilerplate.
+        Drop
+    }
+
+    public static class Builder {
+        private final Pattern pattern;
+        private final Action action;
+        private String firstCharacters = null;
+        private int minLength = 0;
+        private int maxLength = Integer.MAX_VALUE;
+
+        private Builder(Pattern pattern, Action action) {
+            this.pattern = pattern;
+            this.action = action;
+        }
+
+        // The characters a matching block can start with. Leave this out for rules which can match a block starting
+        // with anything; those rules are tried on every block. If the pattern ignores case, either case of each
+        // character counts.
+        public Builder withFirstCharacters(String firstCharacters) {
+            this.firstCharacters = firstCharacters;
+            return this;
+        }
+
+        public Builder withLength(int minLength, int maxLength) {
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        public BlockRule build() {
+            if (pattern == null || action == null) {
+                throw new IllegalArgumentException("A block rule needs a pattern and an action.");
+            }
+
+            if (action == Action.ArticlePublisher && !pattern.pattern().contains("(?<publisher>")) {
+                throw new IllegalArgumentException("ArticlePublisher rules need a \"publisher\" group: " + pattern.pattern());
+            }
+
+            if (firstCharacters != null && firstCharacters.isEmpty()) {
+                throw new IllegalArgumentException("firstCharacters must not be empty for rule: " + pattern.pattern());
+            }
+
+            if (minLength < 0 || maxLength < minLength) {
+                throw new IllegalArgumentException("Invalid length limits " + minLength + " to " + maxLength + " for rule: " + pattern.pattern());
+            }
+
+            if (firstCharacters != null && (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0) {
+                firstCharacters = withBothCases(firstCharacters);
+            }
+
+            return new BlockRule(this);
+        }
+
+        private static String withBothCases(String characters) {
+            final StringBuilder result = new StringBuilder();
+
+            for (char c : characters.toCharArray()) {
+                result.append(c).append(Character.toUpperCase(c)).append(Character.toLowerCase(c));
+            }
+
+            return result.toString();
+        }
+    }
+
+    public static Builder builder(Pattern pattern, Action action) {
+        return new Builder(pattern, action);
+    }
+
+    private final Pattern pattern;
+    private final Action action;
+    private final String firstCharacters;
+    private final int minLength;
+    private final int maxLength;
+
+    private BlockRule(Builder builder) {
+        this.pattern = builder.pattern;
+        this.action = builder.action;
+        this.firstCharacters = builder.firstCharacters;
+        this.minLength = builder.minLength;
+        this.maxLength = builder.maxLength;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    // Null if blocks starting with any character can match.
+    public String getFirstCharacters() {
+        return firstCharacters;
+    }
+
+    // Returns the match if the rule matches the whole block, or null if it doesn't.
+    Matcher match(String block) {
+        if (block.length() < minLength || block.length() > maxLength) {
+            return null;
+        }
+
+        final Matcher matcher = pattern.matcher(block);
+        return matcher.matches() ? matcher : null;
+    }
+
+    // Returns the content for a block the rule matched, or null if the block should be dropped.
+    ContentItem toContent(String block, Matcher matcher) {
+        switch (action) {
+            case ChapterTitle:
+                final String title = getGroup(matcher, "title");
+                return new ChapterTitleContent(title != null ? title.trim() : block);
+            case SectionBreak:
+                return new SectionBreakContent(toNonNullString(getGroup(matcher, "title")).trim());
+            case ArticlePublisher:
+                return new ArticlePublisherContent(block, toNonNullString(getGroup(matcher, "publisher")));
+            default:
+                return null;
+        }
+    }
+
+    // Null if the group didn't take part in the match, or if the pattern has no group with that name.
+    private static String getGroup(Matcher matcher, String name) {
+        try {
+            return matcher.group(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String toNonNullString(String input) {
+        return input != null ? input : "";
+    }
+}
@@ -0,0 +1,271 @@
+package lilytts.parsing.text;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+// Reads a text file a block at a time, where a block is a run of non-blank lines. The file is read through a fixed
+// size buffer and line ends are found by scanning the bytes, so memory use doesn't depend on the size of the file and
+// no String is made for each line. Blocks come out the same as from reading the file line by line with a
+// BufferedReader: lines end at \n, \r or \r\n, are trimmed and are joined with a space.
+class TextBlockReader implements Closeable {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Line ends can only be found in the bytes for charsets where \r and \n are single bytes which are never part
+    // of another character.
+    private static final Set<Charset> BYTE_SCANNABLE_CHARSETS = Set.of(
+        StandardCharsets.UTF_8,
+        StandardCharsets.US_ASCII,
+        StandardCharsets.ISO_8859_1);
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer buffer;
+    private final StringBuilder block = new StringBuilder();
+    private byte[] lineBytes = new byte[256];
+    private int lineLength = 0;
+    private CharBuffer lineChars = CharBuffer.allocate(256);
+    private boolean endOfInput = false;
+    private boolean skipLineFeed = false;
+
+    static boolean supports(Charset charset) {
+        return BYTE_SCANNABLE_CHARSETS.contains(charset);
+    }
+
+    TextBlockReader(Path inputFile, Charset charset) throws IOException {
+        this(inputFile, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    TextBlockReader(Path inputFile, Charset charset, int bufferSize) throws IOException {
+        if (!supports(charset)) {
+            throw new IllegalArgumentException("Can't find line ends in the bytes of " + charset.name() + " text.");
+        }
+
+        // Malformed input is replaced rather than failing, the same as with an InputStreamReader.
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        this.channel = FileChannel.open(inputFile, StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    // Returns the next block, or null at the end of the file.
+    String readBlock() throws IOException {
+        block.setLength(0);
+
+        // Skip any blank lines preceding the text block.
+        int lineStart;
+
+        do {
+            if (!readLine()) {
+                return null;
+            }
+
+            lineStart = trimStart();
+        } while (isBlank(lineStart));
+
+        do {
+            // Separate lines by a space.
+            if (block.length() > 0) {
+                block.append(' ');
+            }
+
+            block.append(lineChars, lineStart, trimEnd(lineStart));
+
+            if (!readLine()) {
+                break;
+            }
+
+            lineStart = trimStart();
+        } while (!isBlank(lineStart));
+
+        return block.length() > 0 ? block.toString() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Reads the next line into lineChars, without the line end. Returns false at the end of the file.
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean readAnything = false;
+
+        while (true) {
+            if (!buffer.hasRemaining() && !fillBuffer()) {
+                if (!readAnything) {
+                    return false;
+                }
+
+                break;
+            }
+
+            final byte[] bytes = buffer.array();
+            final int start = buffer.position();
+            final int end = buffer.limit();
+            int i = start;
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+
+                if (bytes[i] == '\n') {
+                    buffer.position(++i);
+                    continue;
+                }
+            }
+
+            readAnything = true;
+
+            while (i < end && bytes[i] != '\n' && bytes[i] != '\r') {
+                i++;
+            }
+
+            appendLineBytes(bytes, start, i - start);
+
+            if (i < end) {
+                skipLineFeed = bytes[i] == '\r';
+                buffer.position(i + 1);
+                break;
+            }
+
+            buffer.position(end);
+        }
+
+        decodeLine();
+        return true;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        if (endOfInput) {
+            return false;
+        }
+
+        buffer.clear();
+
+        int bytesRead;
+
+        do {
+            bytesRead = channel.read(buffer);
+        } while (bytesRead == 0);
+
+        buffer.flip();
+
+        if (bytesRead < 0) {
+            endOfInput = true;
+            return false;
+        }
+
+        return true;
+    }
+
+    private void appendLineBytes(byte[] bytes, int offset, int length) {
+        if (lineLength + length > lineBytes.length) {
+            final byte[] newLineBytes = new byte[Math.max(lineBytes.length * 2, lineLength + length)];
+            System.arraycopy(lineBytes, 0, newLineBytes, 0, lineLength);
+            lineBytes = newLineBytes;
+        }
+
+        System.arraycopy(bytes, offset, lineBytes, lineLength, length);
+        lineLength += length;
+    }
+
+    private void decodeLine() {
+        lineChars.clear();
+
+        if (lineChars.capacity() < lineLength) {
+            lineChars = CharBuffer.allocate(Math.max(lineChars.capacity() * 2, lineLength));
+        }
+
+        // Most lines are plain ASCII, which needs no decoding. No supported charset decodes to more chars than bytes.
+        if (isAscii(lineBytes, lineLength)) {
+            final char[] chars = lineChars.array();
+
+            for (int i = 0; i < lineLength; i++) {
+                chars[i] = (char)lineBytes[i];
+            }
+
+            lineChars.position(lineLength);
+        } else {
+            final ByteBuffer input = ByteBuffer.wrap(lineBytes, 0, lineLength);
+            decoder.reset();
+
+            final CoderResult result = decoder.decode(input, lineChars, true);
+            decoder.flush(lineChars);
+
+            if (result.isOverflow()) {
+                throw new IllegalStateException("Decoded line is longer than its bytes.");
+            }
+        }
+
+        lineChars.flip();
+    }
+
+    private static boolean isAscii(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // The same rules as String.isBlank: the line is blank if it is all whitespace code points.
+    private boolean isBlank(int lineStart) {
+        int i = lineStart;
+        final int end = lineChars.limit();
+
+        // Trimmed characters which aren't whitespace, e.g. control characters, still make the line not blank.
+        for (int j = 0; j < lineStart; j++) {
+            if (!Character.isWhitespace(lineChars.get(j))) {
+                return false;
+            }
+        }
+
+        while (i < end) {
+            final int codePoint = Character.codePointAt(lineChars, i);
+
+            if (!Character.isWhitespace(codePoint)) {
+                return false;
+            }
+
+            i += Character.charCount(codePoint);
+        }
+
+        return true;
+    }
+
+    // The same rules as String.trim: characters up to and including space are trimmed.
+    private int trimStart() {
+        int start = 0;
+
+        while (start < lineChars.limit() && lineChars.get(start) <= ' ') {
+            start++;
+        }
+
+        return start;
+    }
+
+    private int trimEnd(int lineStart) {
+        int end = lineChars.limit();
+
+        while (end > lineStart && lineChars.get(end - 1) <= ' ') {
+            end--;
+        }
+
+        return end;
+    }
+}
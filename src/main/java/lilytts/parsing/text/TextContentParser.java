@@ -3,32 +3,56 @@ package lilytts.parsing.text;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import lilytts.content.ArticlePublisherContent;
 import lilytts.content.ChapterEndContent;
 import lilytts.content.ChapterTitleContent;
 import lilytts.content.ContentItem;
-import lilytts.content.ParagraphContent;
-import lilytts.content.SectionBreakContent;
 import lilytts.parsing.ContentParser;
 
 public class TextContentParser implements ContentParser {
-    private static final Pattern SECTION_BREAK_PATTERN = Pattern.compile("-{3,}((?<title>.+[^-])-{3,})?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern ARTICLE_PUBLISHER_PATTERN = Pattern.compile("Published .+ by (?<publisher>\\w[\\w\\s]+\\w)\\.", Pattern.CASE_INSENSITIVE);
+    private static final BlockRule SECTION_BREAK_RULE = BlockRule.builder(
+            Pattern.compile("-{3,}((?<title>.+[^-])-{3,})?", Pattern.CASE_INSENSITIVE),
+            BlockRule.Action.SectionBreak)
+        .withFirstCharacters("-")
+        .withLength(3, Integer.MAX_VALUE)
+        .build();
+
+    // The pattern ignores ASCII case only, so the block has to start with P or p.
+    private static final BlockRule ARTICLE_PUBLISHER_RULE = BlockRule.builder(
+            Pattern.compile("Published .+ by (?<publisher>\\w[\\w\\s]+\\w)\\.", Pattern.CASE_INSENSITIVE),
+            BlockRule.Action.ArticlePublisher)
+        .withFirstCharacters("Pp")
+        .withLength("Published x by xyz.".length(), Integer.MAX_VALUE)
+        .build();
 
     public static class Builder {
         private boolean recognizeChapter = true;
         private boolean recognizeSectionBreaks = true;
         private boolean appendChapterEnd = true;
         private boolean recognizeArticlePublisher = false;
+        private final List<BlockRule> rules = new ArrayList<>();
 
         private Builder() {
         }
 
+        // Rules are tried in the order they were added, before the built in section break and publisher rules.
+        public Builder addRule(BlockRule rule) {
+            this.rules.add(rule);
+            return this;
+        }
+
         public Builder setRecognizeChapter(boolean recognizeChapter) {
             this.recognizeChapter = recognizeChapter;
             return this;
@@ -50,28 +74,34 @@ public class TextContentParser implements ContentParser {
         }
 
         public TextContentParser build() {
+            final List<BlockRule> allRules = new ArrayList<>(rules);
+
+            if (recognizeSectionBreaks) {
+                allRules.add(SECTION_BREAK_RULE);
+            }
+
+            if (recognizeArticlePublisher) {
+                allRules.add(ARTICLE_PUBLISHER_RULE);
+            }
+
             return new TextContentParser(
                 recognizeChapter,
-                recognizeSectionBreaks,
                 appendChapterEnd,
-                recognizeArticlePublisher);
+                new BlockClassifier(allRules));
         }
     }
 
     private final boolean recognizeChapter;
-    private final boolean recognizeSectionBreaks;
     private final boolean appendChapterEnd;
-    private final boolean recognizeArticlePublisher;
+    private final BlockClassifier blockClassifier;
 
     private TextContentParser(
             final boolean recognizeChapter,
-            final boolean recognizeSectionBreaks,
             final boolean appendChapterEnd,
-            final boolean recognizeArticlePublisher) {
+            final BlockClassifier blockClassifier) {
         this.recognizeChapter = recognizeChapter;
-        this.recognizeSectionBreaks = recognizeSectionBreaks;
         this.appendChapterEnd = appendChapterEnd;
-        this.recognizeArticlePublisher = recognizeArticlePublisher;
+        this.blockClassifier = blockClassifier;
     }
 
     public static Builder builder() {
@@ -81,38 +111,104 @@ public class TextContentParser implements ContentParser {
     @Override
     public List<ContentItem> readContent(Reader input) throws IOException {
         final BufferedReader reader = new BufferedReader(input);
+        final ContentIterator iterator = new ContentIterator(() -> readNextBlock(reader));
 
         ArrayList<ContentItem> results = new ArrayList<>();
 
-        String nextBlock = readNextBlock(reader);
+        try {
+            iterator.forEachRemaining(results::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
 
-        if (this.recognizeChapter && nextBlock != null) {
-            results.add(new ChapterTitleContent(nextBlock));
-            nextBlock = readNextBlock(reader);
+        return results;
+    }
+
+    // Parses the file lazily, a block at a time. For the charsets TextBlockReader can scan, the file is read through
+    // a fixed size buffer, so even very large files are parsed in constant memory. The stream has to be closed.
+    @Override
+    public Stream<ContentItem> streamContent(Path inputFile, Charset charset) throws IOException {
+        if (!TextBlockReader.supports(charset)) {
+            return ContentParser.super.streamContent(inputFile, charset);
         }
 
-        while (nextBlock != null) {
-            final Matcher sectionBreakMatcher = SECTION_BREAK_PATTERN.matcher(nextBlock);
-            final Matcher articlePublisherMatcher = ARTICLE_PUBLISHER_PATTERN.matcher(nextBlock);
-
-            if (this.recognizeSectionBreaks && sectionBreakMatcher.matches()) {
-                final String sectionTitle = toNonNullString(sectionBreakMatcher.group("title")).trim();
-                results.add(new SectionBreakContent(sectionTitle));
-            } else if (this.recognizeArticlePublisher && articlePublisherMatcher.matches()) {
-                final String articlePublisher = toNonNullString(articlePublisherMatcher.group("publisher"));
-                results.add(new ArticlePublisherContent(nextBlock, articlePublisher));
-            } else {
-                results.add(new ParagraphContent(nextBlock));
+        final TextBlockReader reader = new TextBlockReader(inputFile, charset);
+        final ContentIterator iterator = new ContentIterator(reader::readBlock);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+    }
+
+    private interface BlockSource {
+        // Returns null once there are no more blocks.
+        String readBlock() throws IOException;
+    }
+
+    // Turns blocks of text into content items one at a time.
+    private class ContentIterator implements Iterator<ContentItem> {
+        private final BlockSource blockSource;
+        private ContentItem nextItem = null;
+        private boolean started = false;
+        private boolean finished = false;
+
+        ContentIterator(BlockSource blockSource) {
+            this.blockSource = blockSource;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextItem == null && !finished) {
+                nextItem = readNextItem();
             }
-            
-            nextBlock = readNextBlock(reader);
+
+            return nextItem != null;
         }
 
-        if (this.appendChapterEnd) {
-            results.add(new ChapterEndContent());
+        @Override
+        public ContentItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final ContentItem item = nextItem;
+            nextItem = null;
+            return item;
         }
 
-        return results;
+        private ContentItem readNextItem() {
+            // Skip over blocks which a rule drops.
+            while (true) {
+                final String nextBlock;
+
+                try {
+                    nextBlock = blockSource.readBlock();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                final boolean isFirstBlock = !started;
+                started = true;
+
+                if (nextBlock == null) {
+                    finished = true;
+                    return TextContentParser.this.appendChapterEnd ? new ChapterEndContent() : null;
+                } else if (isFirstBlock && TextContentParser.this.recognizeChapter) {
+                    return new ChapterTitleContent(nextBlock);
+                }
+
+                final ContentItem item = blockClassifier.classify(nextBlock);
+
+                if (item != null) {
+                    return item;
+                }
+            }
+        }
     }
 
     private static String readNextBlock(BufferedReader reader) throws IOException {
@@ -137,8 +233,4 @@ public class TextContentParser implements ContentParser {
 
         return result.length() > 0 ? result.toString() : null;
     }
-
-    private static String toNonNullString(String input) {
-        return input != null ? input : "";
-    }
 }
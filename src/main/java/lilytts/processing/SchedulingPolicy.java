@@ -0,0 +1,13 @@
+package lilytts.processing;
+
+// The order files are handed to the speech synthesizer. Track numbers always follow the original list order.
+public enum SchedulingPolicy {
+    // Convert files in the order they were listed, e.g. chapter order for a book.
+    ListOrder,
+
+    // Convert the shortest files first, so a long file doesn't hold up every file after it.
+    ShortestFirst,
+
+    // Convert files with a higher priority first. Files with the same priority keep their list order.
+    Priority
+}
@@ -1,33 +1,55 @@
 package lilytts.processing;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import com.mpatric.mp3agic.ID3v24Tag;
-import com.mpatric.mp3agic.InvalidDataException;
-import com.mpatric.mp3agic.Mp3File;
 import com.mpatric.mp3agic.NotSupportedException;
-import com.mpatric.mp3agic.UnsupportedTagException;
 
 import lilytts.StringUtil;
+import lilytts.concurrent.DaemonThreadFactory;
 import lilytts.content.ContentItem;
 import lilytts.parsing.ContentParser;
 import lilytts.ssml.SSMLWriter;
-import lilytts.ssml.SSMLWritingException;
+import lilytts.synthesis.CacheStatistics;
+import lilytts.synthesis.CircuitBreaker;
+import lilytts.synthesis.ConnectionStatus;
+import lilytts.synthesis.CostBudget;
 import lilytts.synthesis.CostEstimator;
 import lilytts.synthesis.SpeechSynthesisException;
 import lilytts.synthesis.SpeechSynthesizer;
@@ -36,18 +58,22 @@ import me.tongfei.progressbar.ProgressBarBuilder;
 import me.tongfei.progressbar.ProgressBarStyle;
 
 public class TextFileProcessor {
-    private static class ParsedTextFile {
+    // What is kept about each file between the cost estimate and synthesis. Only the length of the SSML is kept,
+    // since synthesis writes the SSML again from the content.
+    static class ParsedTextFile {
         private File inputFile;
         private List<ContentItem> content;
-        private String ssml;
+        private int ssmlLength;
+        private long billableCharacters;
         private double estimatedCost;
         private File outputFile;
         private boolean skipped;
 
-        ParsedTextFile(File inputFile, List<ContentItem> content, String ssml, double estimatedCost, File outputFile, boolean skipped) {
+        ParsedTextFile(File inputFile, List<ContentItem> content, int ssmlLength, long billableCharacters, double estimatedCost, File outputFile, boolean skipped) {
             this.inputFile = inputFile;
             this.content = content;
-            this.ssml = ssml;
+            this.ssmlLength = ssmlLength;
+            this.billableCharacters = billableCharacters;
             this.estimatedCost = estimatedCost;
             this.outputFile = outputFile;
             this.skipped = skipped;
@@ -57,12 +83,17 @@ public class TextFileProcessor {
             return inputFile;
         }
 
+        // Null in low memory mode, where the file is parsed again when it is synthesized.
         public List<ContentItem> getContent() {
             return content;
         }
 
-        public String getSsml() {
-            return ssml;
+        public int getSsmlLength() {
+            return ssmlLength;
+        }
+
+        public long getBillableCharacters() {
+            return billableCharacters;
         }
 
         public double getEstimatedCost() {
@@ -78,24 +109,68 @@ public class TextFileProcessor {
         }
     }
 
+    private static class FileJob {
+        private final ParsedTextFile textFile;
+        private final int fileIndex;
+        private final File tempOutputFile;
+        private long progress = 0;
+
+        FileJob(ParsedTextFile textFile, int fileIndex, File tempOutputFile) {
+            this.textFile = textFile;
+            this.fileIndex = fileIndex;
+            this.tempOutputFile = tempOutputFile;
+        }
+
+        public ParsedTextFile getTextFile() {
+            return textFile;
+        }
+
+        public int getFileIndex() {
+            return fileIndex;
+        }
+
+        public File getTempOutputFile() {
+            return tempOutputFile;
+        }
+
+        // Records the progress made on this file and returns how much it changed.
+        public long updateProgress(long newProgress) {
+            final long delta = newProgress - this.progress;
+            this.progress = newProgress;
+            return delta;
+        }
+    }
+
+    private static final int PIPELINE_QUEUE_CAPACITY = 2;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     private final SpeechSynthesizer speechSynthesizer;
     private final ContentParser contentParser;
     private final SSMLWriter ssmlWriter;
-    private final XMLOutputFactory xmlOutputFactory;
     private final MetadataGenerator metadataGenerator;
     private final CostEstimator costEstimator;
+
+    // Files being synthesized at the same time all report progress, and their status lines share one line of the
+    // console. Updates are made one at a time so the lines don't run into each other.
+    private final Object progressLock = new Object();
+
     private boolean verbose = true;
+    private int maxConcurrentFiles = 1;
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.ListOrder;
+    private Map<File, Integer> filePriorities = Collections.emptyMap();
+    private CostBudget costBudget = null;
+    private boolean lowMemory = false;
+    private Charset inputCharset = StandardCharsets.UTF_8;
 
     public TextFileProcessor(SpeechSynthesizer speechSynthesizer, ContentParser contentParser, SSMLWriter ssmlWriter, MetadataGenerator metadataGenerator, CostEstimator costEstimator) {
         this.speechSynthesizer = speechSynthesizer;
         this.contentParser = contentParser;
         this.ssmlWriter = ssmlWriter;
         this.metadataGenerator = metadataGenerator;
-        this.xmlOutputFactory = XMLOutputFactory.newFactory();
         this.costEstimator = costEstimator;
     }
 
-    public void convertTextFiles(final List<File> textFiles, final File targetFolder) throws SpeechSynthesisException, SSMLWritingException, IOException, XMLStreamException {
+    public void convertTextFiles(final List<File> textFiles, final File targetFolder) throws SpeechSynthesisException, IOException {
         convertTextFiles(textFiles, targetFolder, x -> true);
     }
 
@@ -103,25 +178,63 @@ public class TextFileProcessor {
         this.verbose = verbose;
     }
 
-    public void convertTextFiles(final List<File> textFiles, final File targetFolder, final Predicate<File> fileFilter) throws SpeechSynthesisException, SSMLWritingException, IOException, XMLStreamException {
+    public void setMaxConcurrentFiles(int maxConcurrentFiles) {
+        if (maxConcurrentFiles < 1) {
+            throw new IllegalArgumentException("maxConcurrentFiles must be at least 1: " + maxConcurrentFiles);
+        }
+
+        this.maxConcurrentFiles = maxConcurrentFiles;
+    }
+
+    public void setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+        this.schedulingPolicy = schedulingPolicy;
+    }
+
+    // Priorities for the Priority scheduling policy. Files which aren't in the map have priority 0.
+    public void setFilePriorities(Map<File, Integer> filePriorities) {
+        this.filePriorities = filePriorities;
+    }
+
+    // Shows how much of the budget has been spent in the progress bar. The budget itself is enforced by the synthesizer.
+    public void setCostBudget(CostBudget costBudget) {
+        this.costBudget = costBudget;
+    }
+
+    // Keeps only a small summary of each file while the cost is estimated, and parses each file again just before it
+    // is synthesized. Heap use then depends on the largest file rather than on the whole corpus, at the cost of
+    // reading every file twice.
+    public void setLowMemory(boolean lowMemory) {
+        this.lowMemory = lowMemory;
+    }
+
+    // The charset of the text files. Defaults to UTF-8, so the same files read the same way on every platform.
+    public void setInputCharset(Charset inputCharset) {
+        this.inputCharset = inputCharset;
+    }
+
+    public void convertTextFiles(final List<File> textFiles, final File targetFolder, final Predicate<File> fileFilter) throws SpeechSynthesisException, IOException {
         // TODO: Encapsulate handling of the print stream.
         final PrintStream verboseOut = this.verbose ? System.out : new PrintStream(OutputStream.nullOutputStream());
 
-        final List<ParsedTextFile> parsedTextFiles = new ArrayList<>(textFiles.size());
-
-        for (File file : textFiles) {
-            parsedTextFiles.add(parseTextFile(file, targetFolder, fileFilter));
+        // Let the synthesizer open its connections while the text files are parsed.
+        if (textFiles.stream().anyMatch(fileFilter)) {
+            speechSynthesizer.warmUp();
         }
 
+        final List<ParsedTextFile> parsedTextFiles = parseTextFiles(textFiles, targetFolder, fileFilter);
+
         double totalEstimatedCost = parsedTextFiles.stream().collect(Collectors.summingDouble(x -> x.getEstimatedCost()));
 
         final DecimalFormat costFormatter = new DecimalFormat("$######0.00");
         System.out.printf("Estimated cost: %s", costFormatter.format(totalEstimatedCost));
 
-        long currentProgress = 0;
+        if (costBudget != null && totalEstimatedCost > costBudget.getMaxCost()) {
+            System.out.printf("%nThe estimated cost is over the budget of %s. Conversion will stop once the budget is spent.", costFormatter.format(costBudget.getMaxCost()));
+        }
+
         long maxProgress = parsedTextFiles.stream()
             .filter(x -> !x.skipped)
-            .collect(Collectors.summingLong(x -> x.getSsml().length()));
+            .collect(Collectors.summingLong(x -> x.getSsmlLength()));
 
         final int filesToProcess = (int)parsedTextFiles.stream().filter(x -> !x.isSkipped()).count();
         
@@ -136,63 +249,302 @@ public class TextFileProcessor {
             System.out.println("");
             System.out.printf("\033[?25l"); // Hide cursor
 
-            for (ParsedTextFile textFile : parsedTextFiles) {
-                final int fileIndex = parsedTextFiles.indexOf(textFile);
+            runPipeline(parsedTextFiles, targetFolder, summaryProgressBar, verboseOut);
+        } finally {
+            System.out.printf("\r%1$-100s\r", ""); // Clear last progress message.
+            System.out.printf("\033[?25h"); // Show cursor again
+            System.out.println("Done!");
+        }
+
+        final CacheStatistics cacheStatistics = speechSynthesizer.getCacheStatistics();
+
+        if (cacheStatistics != null && cacheStatistics.getHits() + cacheStatistics.getMisses() > 0) {
+            verboseOut.printf("Synthesis cache: %d hits, %d misses, %d evicted%n", cacheStatistics.getHits(), cacheStatistics.getMisses(), cacheStatistics.getEvictions());
+        }
+    }
+
+    // Parses every file and writes its SSML for the cost estimate, spread over all cores. Every file is attempted even
+    // if some fail, so the error names each file which couldn't be parsed. The results keep the order of the files.
+    private List<ParsedTextFile> parseTextFiles(final List<File> textFiles, final File targetFolder, final Predicate<File> fileFilter) throws IOException {
+        final int threadCount = Math.max(1, Math.min(textFiles.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService parseExecutor = new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            new DaemonThreadFactory("lilytts-parse"));
+
+        // Each thread reuses one buffer for all of its files, since the SSML for a long book can run to megabytes.
+        // The buffers go away with the threads once parsing is done.
+        final ThreadLocal<StringBuilder> ssmlBuffers = ThreadLocal.withInitial(StringBuilder::new);
+        final List<Future<ParsedTextFile>> results = new ArrayList<>(textFiles.size());
+
+        try {
+            for (File file : textFiles) {
+                results.add(parseExecutor.submit(() -> parseTextFile(file, targetFolder, fileFilter, ssmlBuffers.get())));
+            }
 
-                verboseOut.printf("Converting file %d of %d to speech: %s%n",
-                    fileIndex + 1,
-                    parsedTextFiles.size(),
-                    textFile.getInputFile().getName());
+            final List<ParsedTextFile> parsedTextFiles = new ArrayList<>(textFiles.size());
+            final List<Throwable> errors = new ArrayList<>();
+            final StringBuilder errorMessage = new StringBuilder();
+
+            for (int i = 0; i < textFiles.size(); i++) {
+                try {
+                    parsedTextFiles.add(results.get(i).get());
+                } catch (ExecutionException e) {
+                    errors.add(e.getCause());
+                    errorMessage.append(String.format("%n  %s: %s", textFiles.get(i).getPath(), describeError(e.getCause())));
+                }
+            }
+
+            if (!errors.isEmpty()) {
+                final IOException failure = new IOException(String.format("Unable to parse %d of %d file(s):%s", errors.size(), textFiles.size(), errorMessage), errors.get(0));
+                errors.stream().skip(1).forEach(failure::addSuppressed);
+                throw failure;
+            }
+
+            return parsedTextFiles;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing text files: " + e.getMessage(), e);
+        } finally {
+            parseExecutor.shutdownNow();
+        }
+    }
+
+    private void runPipeline(final List<ParsedTextFile> parsedTextFiles, final File targetFolder, final ProgressBar summaryProgressBar, final PrintStream verboseOut) throws SpeechSynthesisException, IOException {
+        // Each file is synthesized straight into a temp file with its tags, then renamed into place, all on one of the
+        // synthesis threads. The semaphore bounds how many files can be waiting in the queue at once.
+        final int pipelineCapacity = this.maxConcurrentFiles + PIPELINE_QUEUE_CAPACITY;
+        final ExecutorService synthesisExecutor = newStageExecutor("lilytts-synthesis", this.maxConcurrentFiles, pipelineCapacity);
+        final Semaphore pipelinePermits = new Semaphore(pipelineCapacity);
+        final CompletableFuture<Void> pipelineFailure = new CompletableFuture<>();
+        final AtomicLong currentProgress = new AtomicLong();
+        final List<CompletableFuture<Void>> conversions = new ArrayList<>();
+
+        try {
+            for (int fileIndex : getDispatchOrder(parsedTextFiles, schedulingPolicy, filePriorities)) {
+                final ParsedTextFile textFile = parsedTextFiles.get(fileIndex);
 
                 if (textFile.isSkipped()) {
+                    printConvertingMessage(verboseOut, fileIndex, parsedTextFiles.size(), textFile);
                     verboseOut.printf("  => Skipping file.%n", textFile.getOutputFile().getName());
                     continue;
                 }
 
-                summaryProgressBar.stepTo(currentProgress);
-                final long progressBeforeFile = currentProgress;
-                currentProgress += textFile.getSsml().length();
-
+                // Output files are renamed into place once they're complete, so an existing one is finished.
                 if (textFile.getOutputFile().exists() && textFile.getOutputFile().length() > 0) {
+                    summaryProgressBar.stepTo(currentProgress.addAndGet(textFile.getSsmlLength()));
+                    printConvertingMessage(verboseOut, fileIndex, parsedTextFiles.size(), textFile);
                     verboseOut.printf("  => Skipping file because it already exists: %s%n", textFile.getOutputFile().getName());
                     continue;
                 }
 
-                final File tempOutputFile = new File(targetFolder, StringUtil.removeFileExtension(textFile.getOutputFile().getName()) + " audio.mp3");
+                pipelinePermits.acquire();
 
-                speechSynthesizer.synthesizeSsmlToFile(textFile.getSsml(), tempOutputFile.getAbsolutePath(), progress -> {
-                    printProgressMessage(textFile.getOutputFile().getName(), progress.getMessage());
+                // Stop handing out work as soon as any file fails.
+                if (pipelineFailure.isDone()) {
+                    pipelinePermits.release();
+                    break;
+                }
 
-                    final double percentDone = (double)progress.getCurrentProgress() / progress.getMaxProgress();
-                    final long fileProgress = Math.round(textFile.getSsml().length() * percentDone);
-                    summaryProgressBar.stepTo(progressBeforeFile + fileProgress);
+                final FileJob job = new FileJob(textFile, fileIndex, new File(targetFolder, StringUtil.removeFileExtension(textFile.getOutputFile().getName()) + " audio.mp3"));
+
+                // Files which were synthesized before a failure are still saved, since that audio has already been paid for.
+                final CompletableFuture<Void> conversion = CompletableFuture.runAsync(() -> {
+                    if (pipelineFailure.isDone()) {
+                        throw new CancellationException("Skipped because another file failed.");
+                    }
+
+                    printConvertingMessage(verboseOut, job.getFileIndex(), parsedTextFiles.size(), textFile);
+                    synthesizeFile(job, summaryProgressBar, currentProgress);
+                    saveOutputFile(job, verboseOut);
+                }, synthesisExecutor);
+
+                conversion.whenComplete((result, error) -> {
+                    if (!(error instanceof CompletionException && error.getCause() instanceof CancellationException)) {
+                        recordFailure(pipelineFailure, error);
+                    }
+
+                    pipelinePermits.release();
                 });
 
-                final MetadataContext metadataContext = new MetadataContext();
-                metadataContext.setSourceFile(textFile.getInputFile());
-                metadataContext.setContent(textFile.getContent());
-                metadataContext.setFileIndex(fileIndex);
+                conversions.add(conversion);
+            }
+
+            // Wait for every file that was handed out to finish, even if one of them failed.
+            CompletableFuture.allOf(conversions.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while converting text files: " + e.getMessage(), e);
+        } finally {
+            synthesisExecutor.shutdownNow();
+        }
+
+        if (pipelineFailure.isCompletedExceptionally()) {
+            rethrowPipelineFailure(pipelineFailure);
+        }
+    }
+
+    private static void printConvertingMessage(final PrintStream verboseOut, final int fileIndex, final int fileCount, final ParsedTextFile textFile) {
+        verboseOut.printf("Converting file %d of %d to speech: %s%n", fileIndex + 1, fileCount, textFile.getInputFile().getName());
+    }
 
-                final ID3v24Tag metadata = metadataGenerator.generateMetadata(metadataContext);
+    // Returns the indexes of the files in the order they should be synthesized. The index stays with the file, so
+    // track numbers don't depend on the order.
+    static List<Integer> getDispatchOrder(final List<ParsedTextFile> parsedTextFiles, final SchedulingPolicy schedulingPolicy, final Map<File, Integer> filePriorities) {
+        final List<Integer> order = IntStream.range(0, parsedTextFiles.size()).boxed().collect(Collectors.toList());
+
+        // List.sort is stable, so ties keep their list order.
+        switch (schedulingPolicy) {
+            case ShortestFirst:
+                order.sort(Comparator.comparingInt(x -> parsedTextFiles.get(x).getSsmlLength()));
+                break;
+            case Priority:
+                order.sort(Comparator.comparingInt((Integer x) -> filePriorities.getOrDefault(parsedTextFiles.get(x).getInputFile(), 0)).reversed());
+                break;
+            default:
+                break;
+        }
 
-                Files.copy(tempOutputFile.toPath(), textFile.getOutputFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return order;
+    }
 
-                try {
-                    final Mp3File mp3File = new Mp3File(tempOutputFile.getAbsolutePath());
-                    mp3File.setId3v2Tag(metadata);
-                    mp3File.save(textFile.getOutputFile().getAbsolutePath());
-                } catch (UnsupportedTagException | InvalidDataException | NotSupportedException exception) {
-                    throw new RuntimeException("Unexpected error while attempting to write ID3v2 tags to MP3 file: " + exception.getMessage(), exception);
+    private void synthesizeFile(final FileJob job, final ProgressBar summaryProgressBar, final AtomicLong currentProgress) {
+        final ParsedTextFile textFile = job.getTextFile();
+        final File tempOutputFile = job.getTempOutputFile();
+        final List<ContentItem> content;
+
+        try {
+            content = textFile.getContent() != null ? textFile.getContent() : readContent(textFile.getInputFile());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+
+        final MetadataContext metadataContext = new MetadataContext();
+        metadataContext.setSourceFile(textFile.getInputFile());
+        metadataContext.setContent(content);
+        metadataContext.setFileIndex(job.getFileIndex());
+
+        final ID3v24Tag metadata = metadataGenerator.generateMetadata(metadataContext);
+
+        // Write the tags up front and stream the audio in after them, so the audio only goes to disk once.
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempOutputFile), OUTPUT_BUFFER_SIZE)) {
+            output.write(metadata.toBytes());
+
+            speechSynthesizer.synthesizeContentToStream(content, ssmlWriter, tempOutputFile.getAbsolutePath(), output, progress -> {
+                final double percentDone = (double)progress.getCurrentProgress() / progress.getMaxProgress();
+
+                synchronized (progressLock) {
+                    printProgressMessage(textFile.getOutputFile().getName(), progress.getMessage());
+                    summaryProgressBar.stepTo(currentProgress.addAndGet(job.updateProgress(Math.round(textFile.getSsmlLength() * percentDone))));
+                    summaryProgressBar.setExtraMessage(formatStatus());
                 }
+            });
+        } catch (NotSupportedException exception) {
+            tempOutputFile.delete();
+            throw new RuntimeException("Unexpected error while attempting to write ID3v2 tags to MP3 file: " + exception.getMessage(), exception);
+        } catch (SpeechSynthesisException | IOException e) {
+            tempOutputFile.delete();
+            throw new CompletionException(e);
+        } catch (RuntimeException e) {
+            tempOutputFile.delete();
+            throw e;
+        }
+
+        synchronized (progressLock) {
+            summaryProgressBar.stepTo(currentProgress.addAndGet(job.updateProgress(textFile.getSsmlLength())));
+        }
+    }
 
-                tempOutputFile.delete();
-                verboseOut.printf("  => Saved audio to file: %s%n", textFile.getOutputFile().getName());
+    private void saveOutputFile(final FileJob job, final PrintStream verboseOut) {
+        final ParsedTextFile textFile = job.getTextFile();
+        final Path tempOutputPath = job.getTempOutputFile().toPath();
+        final Path outputPath = textFile.getOutputFile().toPath();
+
+        // The finished file appears all at once, so a half-written file is never mistaken for a finished one.
+        try {
+            try {
+                Files.move(tempOutputPath, outputPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempOutputPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
             }
-        } finally {
-            System.out.printf("\r%1$-100s\r", ""); // Clear last progress message.
-            System.out.printf("\033[?25h"); // Show cursor again
-            System.out.println("Done!");
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+
+        verboseOut.printf("  => Saved audio to file: %s%n", textFile.getOutputFile().getName());
+    }
+
+    private String formatStatus() {
+        final String connectionStatus = formatConnectionStatus(speechSynthesizer.getConnectionStatus());
+
+        if (costBudget == null) {
+            return connectionStatus;
+        }
+
+        final DecimalFormat costFormatter = new DecimalFormat("$######0.00");
+        final String spendStatus = String.format("spent %s of %s", costFormatter.format(costBudget.getSpentCost()), costFormatter.format(costBudget.getMaxCost()));
+
+        return connectionStatus.isEmpty() ? spendStatus : spendStatus + ", " + connectionStatus;
+    }
+
+    // Only connections which have been throttled are shown, with their current rate limits.
+    private static String formatConnectionStatus(final List<ConnectionStatus> connections) {
+        return connections.stream()
+            .filter(x -> x.getCircuitState() != CircuitBreaker.State.Closed || x.isCoolingDown() || !Double.isInfinite(x.getRequestsPerSecondLimit()))
+            .map(x -> x.getCircuitState() != CircuitBreaker.State.Closed
+                ? String.format("%s: down", x.getDisplayName())
+                : x.isCoolingDown()
+                ? String.format("%s: paused", x.getDisplayName())
+                : String.format("%s: %.1f/s", x.getDisplayName(), x.getRequestsPerSecondLimit()))
+            .collect(Collectors.joining(", "));
+    }
+
+    // NIO file errors only give the path as their message, which the report already shows.
+    private static String describeError(final Throwable error) {
+        if (error instanceof NoSuchFileException) {
+            return "File not found";
+        } else if (error instanceof AccessDeniedException) {
+            return "Access denied";
         }
+
+        return error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+    }
+
+    private static void recordFailure(final CompletableFuture<Void> pipelineFailure, final Throwable error) {
+        if (error != null) {
+            pipelineFailure.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+        }
+    }
+
+    private static void rethrowPipelineFailure(final CompletableFuture<Void> pipelineFailure) throws SpeechSynthesisException, IOException {
+        try {
+            pipelineFailure.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SpeechSynthesisException) {
+                throw (SpeechSynthesisException) e.getCause();
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new RuntimeException("Unexpected error while converting text files: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static ExecutorService newStageExecutor(final String stageName, final int threadCount, final int queueCapacity) {
+        return new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new DaemonThreadFactory(stageName));
     }
 
     private void printProgressMessage(final String taskName, final String progressMessage) {
@@ -205,21 +557,39 @@ public class TextFileProcessor {
         System.out.printf("\r%1$-100s", formattedMessage);
     }
 
-    private ParsedTextFile parseTextFile(File inputFile, final File targetFolder, final Predicate<File> fileFilter) throws IOException, SSMLWritingException, XMLStreamException {
-        final FileReader inputStream = new FileReader(inputFile);
-        final List<ContentItem> content = this.contentParser.readContent(inputStream);
-
+    private ParsedTextFile parseTextFile(File inputFile, final File targetFolder, final Predicate<File> fileFilter, final StringBuilder ssmlBuffer) throws IOException {
         final String fileNameWithoutExtension = StringUtil.removeFileExtension(inputFile.getName());
         final File outputFile = new File(targetFolder, fileNameWithoutExtension + ".mp3");
 
-        final StringWriter ssmlStringWriter = new StringWriter();
-        ssmlWriter.writeSSML(content, xmlOutputFactory.createXMLStreamWriter(ssmlStringWriter));
-        final String ssml = ssmlStringWriter.toString();
+        ssmlBuffer.setLength(0);
+        final List<ContentItem> content;
+        final long billableCharacters;
+
+        if (lowMemory) {
+            // The content is written out as it is parsed and never kept.
+            try (Stream<ContentItem> contentStream = contentParser.streamContent(inputFile.toPath(), inputCharset)) {
+                content = null;
+                billableCharacters = speechSynthesizer.appendSSML(contentStream::iterator, ssmlWriter, ssmlBuffer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            content = readContent(inputFile);
+            billableCharacters = speechSynthesizer.appendSSML(content, ssmlWriter, ssmlBuffer);
+        }
 
-        final double estimatedCost = costEstimator.getEstimatedCost(ssml);
+        final double estimatedCost = costEstimator.getCostForCharacters(billableCharacters);
         final boolean skipped = !fileFilter.test(inputFile);
 
-        return new ParsedTextFile(inputFile, content, ssml, estimatedCost, outputFile, skipped);
+        return new ParsedTextFile(inputFile, content, ssmlBuffer.length(), billableCharacters, estimatedCost, outputFile, skipped);
+    }
+
+    private List<ContentItem> readContent(File inputFile) throws IOException {
+        try (Stream<ContentItem> content = contentParser.streamContent(inputFile.toPath(), inputCharset)) {
+            return content.collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     private static ProgressBar makeProgressBar(String taskName, long initialMax) {
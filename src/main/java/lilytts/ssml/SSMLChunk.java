@@ -0,0 +1,32 @@
+package lilytts.ssml;
+
+// One request's worth of SSML, along with how many of its characters the service bills for. The count is taken as the
+// SSML is written, so nothing needs to scan the SSML again to work out what it costs.
+public class SSMLChunk {
+    // For SSML which was written some other way, e.g. read from a file.
+    public static final long UNCOUNTED = -1;
+
+    private final String ssml;
+    private final long billableCharacters;
+
+    public SSMLChunk(String ssml, long billableCharacters) {
+        this.ssml = ssml;
+        this.billableCharacters = billableCharacters;
+    }
+
+    public static SSMLChunk uncounted(String ssml) {
+        return new SSMLChunk(ssml, UNCOUNTED);
+    }
+
+    public String getSsml() {
+        return ssml;
+    }
+
+    public boolean isCounted() {
+        return billableCharacters != UNCOUNTED;
+    }
+
+    public long getBillableCharacters() {
+        return billableCharacters;
+    }
+}
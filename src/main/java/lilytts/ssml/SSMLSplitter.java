@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import javax.xml.namespace.QName;
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
@@ -14,35 +15,182 @@ import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.EndElement;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
+import lilytts.content.ContentItem;
+
 public class SSMLSplitter {
     private static final String[] WRAPPER_ELEMENT_NAMES = new String[] { "speak", "voice", "prosody", "express-as" };
     private static final int DEFAULT_MAX_CHUNK_WEIGHT = 7000;
 
-    private final int maxChunkWeight;
+    // Predicted durations are rough, so chunks sized by duration leave this share of the limit unused.
+    private static final double DURATION_SAFETY_MARGIN = 0.1;
+
+    public static class Builder {
+        private int maxChunkWeight = DEFAULT_MAX_CHUNK_WEIGHT;
+        private boolean contentDefinedBoundaries = false;
+        private double maxChunkSeconds = 0;
+        private SpeechDurationEstimator durationEstimator = null;
+
+        public Builder withMaxChunkWeight(int maxChunkWeight) {
+            this.maxChunkWeight = maxChunkWeight;
+            return this;
+        }
+
+        // Sizes chunks by how long they take to read rather than by a fixed weight, so each request comes close to
+        // the service's limit on audio length whatever the voice and prosody rate. Takes the place of the max weight.
+        public Builder withMaxChunkDuration(double maxChunkSeconds, SpeechDurationEstimator durationEstimator) {
+            this.maxChunkSeconds = maxChunkSeconds;
+            this.durationEstimator = durationEstimator;
+            return this;
+        }
+
+        // Ends chunks after elements picked by a hash of their text rather than by filling every chunk up. An edit
+        // then only changes the chunks around it, and the rest of the chunks come out the same as before.
+        public Builder withContentDefinedBoundaries() {
+            this.contentDefinedBoundaries = true;
+            return this;
+        }
+
+        public SSMLSplitter build() {
+            return new SSMLSplitter(maxChunkWeight, contentDefinedBoundaries, maxChunkSeconds, durationEstimator);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final boolean contentDefinedBoundaries;
+    private final double maxChunkSeconds;
+    private final SpeechDurationEstimator durationEstimator;
+    private final ChunkWeights fixedChunkWeights;
     private final XMLEventFactory xmlEventFactory = XMLEventFactory.newInstance();
+    private final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
 
     public SSMLSplitter() {
         this(DEFAULT_MAX_CHUNK_WEIGHT);
     }
 
     public SSMLSplitter(int maxChunkWeight) {
-        this.maxChunkWeight = maxChunkWeight;
+        this(maxChunkWeight, false, 0, null);
+    }
+
+    private SSMLSplitter(int maxChunkWeight, boolean contentDefinedBoundaries, double maxChunkSeconds, SpeechDurationEstimator durationEstimator) {
+        if (maxChunkWeight < 1) {
+            throw new IllegalArgumentException("maxChunkWeight must be at least 1: " + maxChunkWeight);
+        }
+
+        if (durationEstimator != null && maxChunkSeconds <= 0) {
+            throw new IllegalArgumentException("maxChunkSeconds must be positive: " + maxChunkSeconds);
+        }
+
+        this.contentDefinedBoundaries = contentDefinedBoundaries;
+        this.maxChunkSeconds = maxChunkSeconds;
+        this.durationEstimator = durationEstimator;
+        this.fixedChunkWeights = new ChunkWeights(maxChunkWeight);
+    }
+
+    // The weight limits for one document. They only depend on the voice and prosody rate when chunks are sized by
+    // duration.
+    private static class ChunkWeights {
+        final int max;
+        final int minAnchored;
+        final int targetAnchored;
+        final double charactersPerSecond;
+
+        ChunkWeights(int max) {
+            this(max, 0);
+        }
+
+        ChunkWeights(int max, double charactersPerSecond) {
+            this.max = max;
+            this.charactersPerSecond = charactersPerSecond;
+
+            // Anchored chunks average about half the maximum, which leaves room for the chunk to grow
+            // past an edit without hitting the limit and shifting the boundaries after it.
+            this.minAnchored = Math.max(1, max / 4);
+            this.targetAnchored = Math.max(1, max / 2);
+        }
+
+        // A break has no text, but when chunks are sized by duration its time counts as much as the text which
+        // would take as long to read. Otherwise a chunk with many breaks could run past the limit on audio length.
+        int getBreakWeight(String time) {
+            if (charactersPerSecond == 0 || time == null) {
+                return 0;
+            }
+
+            final String trimmed = time.trim().toLowerCase();
+            final double seconds;
+
+            try {
+                if (trimmed.endsWith("ms")) {
+                    seconds = Double.parseDouble(trimmed.substring(0, trimmed.length() - 2)) / 1000;
+                } else if (trimmed.endsWith("s")) {
+                    seconds = Double.parseDouble(trimmed.substring(0, trimmed.length() - 1));
+                } else {
+                    return 0;
+                }
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+
+            return (int)Math.ceil(Math.max(0, seconds) * charactersPerSecond);
+        }
+    }
+
+    private ChunkWeights getChunkWeights(String voiceName, String prosodyRate) {
+        if (durationEstimator == null) {
+            return fixedChunkWeights;
+        }
+
+        final double charactersPerSecond = durationEstimator.getCharactersPerSecond(voiceName, prosodyRate);
+        return new ChunkWeights(Math.max(1, (int)(maxChunkSeconds * (1 - DURATION_SAFETY_MARGIN) * charactersPerSecond)), charactersPerSecond);
+    }
+
+    private ChunkWeights getChunkWeights(List<XMLEvent> wrapperEventStack) {
+        String voiceName = null;
+        String prosodyRate = null;
+
+        for (XMLEvent event : wrapperEventStack) {
+            if (!event.isStartElement()) {
+                continue;
+            }
+
+            final StartElement startElement = event.asStartElement();
+            final String localName = startElement.getName().getLocalPart();
+
+            if (localName.equalsIgnoreCase("voice")) {
+                voiceName = getAttribute(startElement, "name");
+            } else if (localName.equalsIgnoreCase("prosody")) {
+                prosodyRate = getAttribute(startElement, "rate");
+            }
+        }
+
+        return getChunkWeights(voiceName, prosodyRate);
+    }
+
+    private static String getAttribute(StartElement startElement, String name) {
+        final Attribute attribute = startElement.getAttributeByName(new QName(name));
+        return attribute != null ? attribute.getValue() : null;
     }
 
     public List<String> splitSSML(String ssml) {
         try {
-            final XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(new StringReader(ssml));
+            final XMLEventReader reader = xmlInputFactory.createXMLEventReader(new StringReader(ssml));
             final List<XMLEvent> wrapperEventStack = new ArrayList<>();
             final List<String> chunks = new ArrayList<>();
 
-            // Start writing the SSML contents to a chunk.
+            // Start writing the SSML contents to a chunk. The limits are worked out once the wrappers have been read.
+            ChunkWeights weights = null;
             int currentWeight = 0;
+            boolean endChunkAtAnchor = false;
             StringWriter chunkWriter = new StringWriter();
-            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(chunkWriter);
+            XMLEventWriter writer = xmlOutputFactory.createXMLEventWriter(chunkWriter);
 
             while(reader.hasNext()) {
                 XMLEvent nextTag = reader.nextTag();
@@ -55,6 +203,7 @@ public class SSMLSplitter {
                     // Write the wrapper element onto the stack and to the output stream.
                     List<XMLEvent> events = pushWrapperElement(reader, wrapperEventStack, nextTag.asStartElement());
                     writeEvents(writer, events);
+                    weights = null;
                     continue;
                 } else if (nextTag.isEndElement()) {
                     // Write the end tag to the current SSML document and then pop all the events
@@ -67,18 +216,71 @@ public class SSMLSplitter {
                     break;
                 }
 
+                if (weights == null) {
+                    weights = getChunkWeights(wrapperEventStack);
+                }
+
                 final List<XMLEvent> elementEvents = readElement(reader, nextTag.asStartElement());
-                final int elementWeight = getWeight(elementEvents);
+                final int textWeight = getWeight(elementEvents);
+                final int elementWeight = isBreak(nextTag.asStartElement())
+                    ? textWeight + weights.getBreakWeight(getAttribute(nextTag.asStartElement(), "time"))
+                    : textWeight;
+
+                // Spread a paragraph which won't fit in any chunk over several chunks, a sentence at a time. This
+                // matches what SSMLWriter does for splitContent.
+                if (elementWeight > weights.max && isParagraph(nextTag.asStartElement())) {
+                    final XMLEvent paragraphStart = elementEvents.get(0);
+                    final XMLEvent paragraphEnd = elementEvents.get(elementEvents.size() - 1);
+                    boolean paragraphOpen = false;
+
+                    for (String sentence : SentenceSegmenter.segment(getText(elementEvents), weights.max)) {
+                        if (endChunkAtAnchor || currentWeight + sentence.length() > weights.max) {
+                            if (paragraphOpen) {
+                                writer.add(paragraphEnd);
+                                paragraphOpen = false;
+                            }
+
+                            closeXmlDocument(writer, wrapperEventStack);
+                            chunks.add(chunkWriter.toString());
+
+                            currentWeight = 0;
+                            chunkWriter = new StringWriter();
+                            writer = xmlOutputFactory.createXMLEventWriter(chunkWriter);
+                            writeEvents(writer, wrapperEventStack);
+                        }
+
+                        if (!paragraphOpen) {
+                            writer.add(paragraphStart);
+                            paragraphOpen = true;
+                        }
+
+                        writer.add(xmlEventFactory.createStartElement("", "", "s"));
+                        writer.add(xmlEventFactory.createCharacters(sentence));
+                        writer.add(xmlEventFactory.createEndElement("", "", "s"));
+
+                        currentWeight += sentence.length();
+                        endChunkAtAnchor = this.contentDefinedBoundaries
+                            && currentWeight >= weights.minAnchored
+                            && isAnchorElement(sentence, sentence.length(), weights);
+                    }
+
+                    if (paragraphOpen) {
+                        writer.add(paragraphEnd);
+                    }
+
+                    continue;
+                }
 
-                if (currentWeight + elementWeight > this.maxChunkWeight) {
+                if (endChunkAtAnchor || currentWeight + elementWeight > weights.max) {
                     // Close the current chunk, writing any necessary end tags.
                     closeXmlDocument(writer, wrapperEventStack);
                     chunks.add(chunkWriter.toString());
 
                     // Start a new chunk.
                     currentWeight = 0;
+                    endChunkAtAnchor = false;
                     chunkWriter = new StringWriter();
-                    writer = XMLOutputFactory.newInstance().createXMLEventWriter(chunkWriter);
+                    writer = xmlOutputFactory.createXMLEventWriter(chunkWriter);
 
                     // Replay the current set of wrapper elements in the new chunk.
                     //
@@ -89,6 +291,11 @@ public class SSMLSplitter {
 
                 writeEvents(writer, elementEvents);
                 currentWeight += elementWeight;
+
+                // The boundary is only decided once another element follows, so the last chunk is never empty.
+                endChunkAtAnchor = this.contentDefinedBoundaries
+                    && currentWeight >= weights.minAnchored
+                    && isAnchorElement(getText(elementEvents), textWeight, weights);
             }
 
             closeXmlDocument(writer, wrapperEventStack);
@@ -100,6 +307,127 @@ public class SSMLSplitter {
         }
     }
 
+    // Splits content straight into chunk documents, without writing out the whole document and parsing it back.
+    // The chunks are the same as splitSSML would make from the document the SSMLWriter writes for the content, and
+    // each one comes with the number of its characters the service bills for.
+    public List<SSMLChunk> splitContent(Iterable<ContentItem> content, SSMLWriter ssmlWriter) {
+        final ContentChunker chunker = new ContentChunker(ssmlWriter, new StringBuilder(), true);
+        ssmlWriter.writeBody(content, chunker);
+        return chunker.finish();
+    }
+
+    // Appends the chunks splitContent would make one after another, and returns how many characters the service bills
+    // for across all of them. Each chunk repeats the envelope, so this is more than a single document would cost.
+    public long appendChunks(Iterable<ContentItem> content, SSMLWriter ssmlWriter, StringBuilder output) {
+        final ContentChunker chunker = new ContentChunker(ssmlWriter, output, false);
+        ssmlWriter.writeBody(content, chunker);
+        chunker.finish();
+        return chunker.totalBillableCharacters;
+    }
+
+    // Decides which chunk each element of the body goes to, following the same rules as splitSSML. Chunks are built
+    // in one buffer which is reused for every chunk, unless they are being appended one after another.
+    private class ContentChunker implements SSMLWriter.ElementTarget {
+        private final SSMLWriter ssmlWriter;
+        private final ChunkWeights weights;
+        private final StringBuilder chunkBuilder;
+        private final boolean keepChunks;
+        private final List<SSMLChunk> chunks = new ArrayList<>();
+        private int currentWeight = 0;
+        private boolean endChunkAtAnchor = false;
+        private long currentBillableCharacters;
+        private long totalBillableCharacters = 0;
+
+        ContentChunker(SSMLWriter ssmlWriter, StringBuilder chunkBuilder, boolean keepChunks) {
+            this.ssmlWriter = ssmlWriter;
+            this.weights = getChunkWeights(ssmlWriter.getVoiceName(), ssmlWriter.getProsodyRate());
+            this.chunkBuilder = chunkBuilder;
+            this.keepChunks = keepChunks;
+            startChunk();
+        }
+
+        @Override
+        public StringBuilder startElement(String text) {
+            startChunkIfFull(text.length());
+            addWeight(text);
+            return chunkBuilder;
+        }
+
+        @Override
+        public StringBuilder startBreak(String time) {
+            final int breakWeight = weights.getBreakWeight(time);
+
+            startChunkIfFull(breakWeight);
+            currentWeight += breakWeight;
+            endChunkAtAnchor = false;
+            return chunkBuilder;
+        }
+
+        @Override
+        public int getMaxElementWeight() {
+            return weights.max;
+        }
+
+        @Override
+        public boolean continueElement(String text) {
+            if (endsChunk(text.length())) {
+                return false;
+            }
+
+            addWeight(text);
+            return true;
+        }
+
+        @Override
+        public void addBillableCharacters(long count) {
+            currentBillableCharacters += count;
+        }
+
+        private void startChunkIfFull(int elementWeight) {
+            if (endsChunk(elementWeight)) {
+                endChunk();
+
+                currentWeight = 0;
+                startChunk();
+            }
+        }
+
+        private boolean endsChunk(int elementWeight) {
+            return endChunkAtAnchor || currentWeight + elementWeight > weights.max;
+        }
+
+        private void addWeight(String text) {
+            currentWeight += text.length();
+
+            endChunkAtAnchor = contentDefinedBoundaries
+                && currentWeight >= weights.minAnchored
+                && isAnchorElement(text, text.length(), weights);
+        }
+
+        List<SSMLChunk> finish() {
+            endChunk();
+            return chunks;
+        }
+
+        private void startChunk() {
+            if (keepChunks) {
+                chunkBuilder.setLength(0);
+            }
+
+            ssmlWriter.writeChunkStart(chunkBuilder);
+            currentBillableCharacters = ssmlWriter.getBillableEnvelopeCharacters();
+        }
+
+        private void endChunk() {
+            ssmlWriter.writeChunkEnd(chunkBuilder);
+            totalBillableCharacters += currentBillableCharacters;
+
+            if (keepChunks) {
+                chunks.add(new SSMLChunk(chunkBuilder.toString(), currentBillableCharacters));
+            }
+        }
+    }
+
     private List<XMLEvent> pushWrapperElement(final XMLEventReader reader, List<XMLEvent> wrapperEventStack, StartElement startElement) throws XMLStreamException {
         final List<XMLEvent> events = new ArrayList<>();
 
@@ -136,10 +464,46 @@ public class SSMLSplitter {
         return result;
     }
 
+    private boolean isParagraph(final StartElement startElement) {
+        return startElement.getName().getLocalPart().equalsIgnoreCase("p");
+    }
+
+    private boolean isBreak(final StartElement startElement) {
+        return startElement.getName().getLocalPart().equalsIgnoreCase("break");
+    }
+
     private boolean isWrapperElement(final StartElement startElement) {
         return Arrays.stream(WRAPPER_ELEMENT_NAMES).anyMatch(x -> x.equalsIgnoreCase(startElement.getName().getLocalPart()));
     }
 
+    // Picks elements to end chunks at based only on their own text. Each element is picked with a chance in
+    // proportion to its weight, so chunks come out near the target weight no matter how long the paragraphs are.
+    private boolean isAnchorElement(String text, int elementWeight, ChunkWeights weights) {
+        int hash = text.hashCode();
+
+        // Mix the bits so that similar paragraphs don't land on similar values.
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        hash *= 0xc2b2ae35;
+        hash ^= (hash >>> 16);
+
+        return Integer.toUnsignedLong(hash) % weights.targetAnchored < elementWeight;
+    }
+
+    // The parser can hand the text of one element over in several pieces, e.g. around escaped characters.
+    private String getText(List<XMLEvent> events) {
+        final StringBuilder text = new StringBuilder();
+
+        for (XMLEvent event : events) {
+            if (event.isCharacters()) {
+                text.append(event.asCharacters().getData());
+            }
+        }
+
+        return text.toString();
+    }
+
     private int getWeight(List<XMLEvent> events) {
         return events.stream()
             .filter(x -> x.isCharacters())
@@ -1,14 +1,13 @@
 package lilytts.ssml;
 
-import static javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI;
-
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.util.List;
 
 import lilytts.content.ArticlePublisherContent;
 import lilytts.content.ChapterEndContent;
 import lilytts.content.ChapterTitleContent;
 import lilytts.content.ContentItem;
+import lilytts.content.ContentVisitor;
 import lilytts.content.ParagraphContent;
 import lilytts.content.SectionBreakContent;
 import static lilytts.StringUtil.nullOrEmpty;
@@ -51,11 +50,20 @@ public class SSMLWriter {
         return new Builder();
     }
 
-    private final boolean writeVoiceElement;
+    private static final String SPEAK_NAMESPACES = "xmlns=\"http://www.w3.org/2001/10/synthesis\" xmlns:mstts=\"http://www.w3.org/2001/mstts\"";
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    // The envelope around the body only depends on the configuration, so it is rendered once up front. The output
+    // matches what the StAX writer this replaced produced, so SSML for the same content doesn't change.
+    private final String documentStart;
+    private final String chunkStart;
+    private final String envelopeEnd;
     private final String voiceName;
-    private final String voiceStyle;
     private final String prosodyRate;
-    private final String pitch;
+
+    // Azure charges for every character of the SSML but the XML declaration and the speak and voice elements, so of
+    // the envelope only the style and prosody elements are billed.
+    private final int billableEnvelopeCharacters;
 
     private SSMLWriter(
         final boolean writeVoiceElement,
@@ -63,126 +71,282 @@ public class SSMLWriter {
         final String voiceStyle,
         final String prosodyRate,
         final String pitch) {
-        this.writeVoiceElement = writeVoiceElement;
-        this.voiceName = voiceName;
-        this.voiceStyle = voiceStyle;
-        this.prosodyRate = prosodyRate;
-        this.pitch = pitch;
+        final StringBuilder wrapperStart = new StringBuilder();
+        final StringBuilder wrapperEnd = new StringBuilder();
+        int billableEnvelopeCharacters = 0;
+
+        if (writeVoiceElement) {
+            wrapperStart.append("<voice name=\"");
+            appendEscapedAttribute(wrapperStart, voiceName);
+            wrapperStart.append("\">");
+            wrapperEnd.insert(0, "</voice>");
+        }
+
+        if (!nullOrEmpty(voiceStyle)) {
+            final int elementStart = wrapperStart.length();
+            wrapperStart.append("<mstts:express-as style=\"");
+            appendEscapedAttribute(wrapperStart, voiceStyle);
+            wrapperStart.append("\">");
+            wrapperEnd.insert(0, "</mstts:express-as>");
+            billableEnvelopeCharacters += wrapperStart.codePointCount(elementStart, wrapperStart.length()) + "</mstts:express-as>".length();
+        }
+
+        if (!nullOrEmpty(prosodyRate) || !nullOrEmpty(pitch)) {
+            final int elementStart = wrapperStart.length();
+            wrapperStart.append("<prosody");
+
+            if (!nullOrEmpty(prosodyRate)) {
+                wrapperStart.append(" rate=\"");
+                appendEscapedAttribute(wrapperStart, prosodyRate);
+                wrapperStart.append('"');
+            }
+
+            if (!nullOrEmpty(pitch)) {
+                wrapperStart.append(" pitch=\"");
+                appendEscapedAttribute(wrapperStart, pitch);
+                wrapperStart.append('"');
+            }
+
+            wrapperStart.append('>');
+            wrapperEnd.insert(0, "</prosody>");
+            billableEnvelopeCharacters += wrapperStart.codePointCount(elementStart, wrapperStart.length()) + "</prosody>".length();
+        }
+
+        this.documentStart = "<?xml version=\"1.0\" ?><speak version=\"1.0\" " + SPEAK_NAMESPACES + " xml:lang=\"en-US\">" + wrapperStart;
+
+        // Chunk documents have no XML declaration and list the speak attributes in the order SSMLSplitter has always
+        // written them, so the chunks, and any cache keys made from them, don't change.
+        this.chunkStart = "<speak " + SPEAK_NAMESPACES + " xml:lang=\"en-US\" version=\"1.0\">" + wrapperStart;
+        this.envelopeEnd = wrapperEnd + "</speak>";
+        this.voiceName = writeVoiceElement ? voiceName : null;
+        this.prosodyRate = nullOrEmpty(prosodyRate) ? null : prosodyRate;
+        this.billableEnvelopeCharacters = billableEnvelopeCharacters;
     }
 
-    public void writeSSML(Iterable<ContentItem> content, XMLStreamWriter out) throws SSMLWritingException {
+    // Null if the SSML doesn't name a voice.
+    public String getVoiceName() {
+        return voiceName;
+    }
+
+    // Null if the SSML doesn't set a prosody rate.
+    public String getProsodyRate() {
+        return prosodyRate;
+    }
+
+    public String toSSML(Iterable<ContentItem> content) {
+        final StringBuilder output = new StringBuilder(INITIAL_BUFFER_SIZE);
+        appendSSML(content, output);
+        return output.toString();
+    }
+
+    // Appends to the buffer instead of making a new one, so callers writing many files can reuse one buffer. Returns
+    // how many characters of the document Azure bills for, counted as it is written, so callers don't need to scan
+    // the document again to estimate its cost.
+    public long appendSSML(Iterable<ContentItem> content, StringBuilder output) {
+        output.append(documentStart);
+        final long billableBodyCharacters = writeBody(content, text -> output);
+        output.append(envelopeEnd);
+
+        return billableEnvelopeCharacters + billableBodyCharacters;
+    }
+
+    public void writeSSML(Iterable<ContentItem> content, Appendable out) throws SSMLWritingException {
         try {
-            final boolean writeStyleElement = !nullOrEmpty(this.voiceStyle);
-            final boolean writeProsodyElement = !nullOrEmpty(this.prosodyRate) || !nullOrEmpty(this.pitch);
-
-            out.writeStartDocument();
-            out.writeStartElement("speak");
-            out.writeAttribute("version", "1.0");
-            out.writeDefaultNamespace("http://www.w3.org/2001/10/synthesis");
-            out.writeNamespace("mstts", "http://www.w3.org/2001/mstts");
-            out.writeAttribute("xml", W3C_XML_SCHEMA_NS_URI, "lang", "en-US");
-            
-            if (this.writeVoiceElement) {
-                out.writeStartElement("voice");
-                out.writeAttribute("name", this.voiceName);
+            out.append(toSSML(content));
+        } catch (IOException e) {
+            throw new SSMLWritingException("An I/O error occurred while writing SSML: " + e.getMessage(), e);
+        }
+    }
+
+    // Picks where each top level element of the body is written. Called with the text of the element before it is
+    // written, so SSMLSplitter can start a new chunk in between elements.
+    interface ElementTarget {
+        StringBuilder startElement(String text);
+
+        // Paragraphs with more text than this are written as sentences, which can be spread over several chunks.
+        default int getMaxElementWeight() {
+            return Integer.MAX_VALUE;
+        }
+
+        // Called for each sentence of a paragraph after the first. Returns false if the sentence has to go in a new
+        // chunk, in which case the paragraph is ended and the sentence starts a new element.
+        default boolean continueElement(String text) {
+            return true;
+        }
+
+        // Called for a break, which has no text but still adds its time to the audio.
+        default StringBuilder startBreak(String time) {
+            return startElement("");
+        }
+
+        // Called with the billable characters of the markup and text just written, so a target which splits the body
+        // into chunks can tell what each chunk costs.
+        default void addBillableCharacters(long count) {
+        }
+    }
+
+    // The style and prosody elements around the body are billed once for each document or chunk they wrap.
+    int getBillableEnvelopeCharacters() {
+        return billableEnvelopeCharacters;
+    }
+
+    void writeChunkStart(StringBuilder out) {
+        out.append(chunkStart);
+    }
+
+    void writeChunkEnd(StringBuilder out) {
+        out.append(envelopeEnd);
+    }
+
+    // Returns the number of billable characters written, which is all of them, since the body is only text and the
+    // markup around it.
+    long writeBody(Iterable<ContentItem> content, ElementTarget target) {
+        final BodyWriter bodyWriter = new BodyWriter(target);
+
+        for (ContentItem item : content) {
+            item.accept(bodyWriter);
+        }
+
+        return bodyWriter.billableCharacters;
+    }
+
+    private static class BodyWriter implements ContentVisitor {
+        private final ElementTarget target;
+        private long billableCharacters = 0;
+
+        BodyWriter(ElementTarget target) {
+            this.target = target;
+        }
+
+        private void addBillableCharacters(long count) {
+            billableCharacters += count;
+            target.addBillableCharacters(count);
+        }
+
+        @Override
+        public void visitChapterTitle(ChapterTitleContent item) {
+            writeBreak("2s");
+            writeTextElement(item.getContent());
+            writeBreak("1s");
+        }
+
+        @Override
+        public void visitArticlePublisher(ArticlePublisherContent item) {
+            writeTextElement(item.getContent());
+        }
+
+        @Override
+        public void visitParagraph(ParagraphContent item) {
+            writeTextElement(item.getContent());
+        }
+
+        @Override
+        public void visitSectionBreak(SectionBreakContent item) {
+            writeBreak("2s");
+
+            if (!item.getSectionTitle().isBlank()) {
+                writeTextElement(item.getSectionTitle());
+                writeBreak("1s");
             }
+        }
+
+        @Override
+        public void visitChapterEnd(ChapterEndContent item) {
+            writeBreak("2s");
+        }
 
-            if (writeStyleElement) {
-                out.writeStartElement("http://www.w3.org/2001/mstts", "express-as");
-                out.writeAttribute("style", this.voiceStyle);
+        private void writeTextElement(String text) {
+            if (text.length() > target.getMaxElementWeight()) {
+                writeSentences(SentenceSegmenter.segment(text, target.getMaxElementWeight()));
+                return;
             }
 
-            if (writeProsodyElement) {
-                out.writeStartElement("prosody");
+            final StringBuilder out = target.startElement(text);
+            out.append("<p>");
+            addBillableCharacters(appendEscapedText(out, text));
+            out.append("</p>");
+            addBillableCharacters("<p></p>".length());
+        }
 
-                if (!nullOrEmpty(this.prosodyRate)) {
-                    out.writeAttribute("rate", this.prosodyRate);
-                }
+        // A paragraph which is split across chunks is ended at the end of one chunk and picks up again in the next.
+        private void writeSentences(List<String> sentences) {
+            StringBuilder out = null;
 
-                if (!nullOrEmpty(this.pitch)) {
-                    out.writeAttribute("pitch", this.pitch);
-                }
-            }
+            for (String sentence : sentences) {
+                if (out == null || !target.continueElement(sentence)) {
+                    if (out != null) {
+                        out.append("</p>");
+                    }
 
-            // TODO: This would be better as a visitor pattern.
-            for (ContentItem item : content) {
-                if (item instanceof ChapterTitleContent) {
-                    writeChapterTitle(out, (ChapterTitleContent)item);
-                } else if (item instanceof ParagraphContent) {
-                    writeParagraph(out, (ParagraphContent)item);
-                } else if (item instanceof SectionBreakContent) {
-                    writeSectionBreak(out, (SectionBreakContent)item);
-                } else if (item instanceof ChapterEndContent) {
-                    writeChapterEnd(out, (ChapterEndContent)item);
-                } else if (item instanceof ArticlePublisherContent) {
-                    writeArticlePublisher(out, (ArticlePublisherContent)item);
-                } else {
-                    throw new IllegalArgumentException("Unknown content item type: " + item.getClass().getSimpleName());
+                    out = target.startElement(sentence);
+                    out.append("<p>");
+                    addBillableCharacters("<p></p>".length());
                 }
+
+                out.append("<s>");
+                addBillableCharacters(appendEscapedText(out, sentence));
+                out.append("</s>");
+                addBillableCharacters("<s></s>".length());
             }
 
-            if (writeProsodyElement) {
-                out.writeEndElement();
+            if (out != null) {
+                out.append("</p>");
             }
+        }
+
+        private void writeBreak(String time) {
+            target.startBreak(time).append("<break time=\"").append(time).append("\"></break>");
+            addBillableCharacters("<break time=\"\"></break>".length() + time.length());
+        }
+    }
+
+    private static int appendEscapedText(StringBuilder out, String text) {
+        return appendEscaped(out, text, false);
+    }
+
+    private static void appendEscapedAttribute(StringBuilder out, String value) {
+        appendEscaped(out, value, true);
+    }
+
+    // Most text has nothing to escape, so it is copied in runs between the characters which do need escaping.
+    // Returns the number of code points appended.
+    private static int appendEscaped(StringBuilder out, String value, boolean isAttribute) {
+        final int length = value.length();
+        int runStart = 0;
+        int codePoints = length;
+
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            final String replacement;
 
-            if (writeStyleElement) {
-                out.writeEndElement();
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = isAttribute ? "&quot;" : null;
+                    break;
+                default:
+                    replacement = null;
+                    break;
             }
 
-            if (this.writeVoiceElement) {
-                out.writeEndElement();
+            if (replacement != null) {
+                out.append(value, runStart, i).append(replacement);
+                runStart = i + 1;
+                codePoints += replacement.length() - 1;
+            } else if (Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(value.charAt(i - 1))) {
+                codePoints--;
             }
+        }
 
-            out.writeEndElement();
-            out.writeEndDocument();
-        } catch (XMLStreamException e) {
-            throw new SSMLWritingException("An I/O error occurred while writing SSML: " + e.getMessage(), e);
-        } catch (Exception e) {
-            throw new SSMLWritingException("An unexpected error occurred while writing SSML: " + e.getMessage(), e);
-        }
-    }
-    
-    private void writeChapterTitle(XMLStreamWriter out, ChapterTitleContent item) throws XMLStreamException {
-        writeBreak(out, "2s");
-        
-        out.writeStartElement("p");
-        out.writeCharacters(item.getContent());
-        out.writeEndElement();
-        
-        writeBreak(out, "1s");
-    }
-    
-    private void writeArticlePublisher(XMLStreamWriter out, ArticlePublisherContent item) throws XMLStreamException {
-        out.writeStartElement("p");
-        out.writeCharacters(item.getContent());
-        out.writeEndElement();
-    }
-    
-    private void writeParagraph(XMLStreamWriter out, ParagraphContent item) throws XMLStreamException {
-        out.writeStartElement("p");
-        out.writeCharacters(item.getContent());
-        out.writeEndElement();
-    }
-    
-    private void writeSectionBreak(XMLStreamWriter out, SectionBreakContent item) throws XMLStreamException {
-        writeBreak(out, "2s");
-        
-        if (!item.getSectionTitle().isBlank()) {
-            out.writeStartElement("p");
-            out.writeCharacters(item.getSectionTitle());
-            out.writeEndElement();
-            
-            writeBreak(out, "1s");
-        }
-    }
-    
-    private void writeChapterEnd(XMLStreamWriter out, ChapterEndContent item) throws XMLStreamException {
-        writeBreak(out, "2s");
-    }
-    
-    private void writeBreak(XMLStreamWriter out, String time) throws XMLStreamException {
-        out.writeStartElement("break");
-        out.writeAttribute("time", time);
-        out.writeEndElement();
+        out.append(value, runStart, length);
+        return codePoints;
     }
 }
@@ -0,0 +1,66 @@
+package lilytts.ssml;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Breaks a paragraph which is too long for one chunk into sentences. A sentence which is still too long is broken at
+// the last clause boundary that fits, then at a space, and only cut mid-word if there's no other choice.
+class SentenceSegmenter {
+    private static final String CLAUSE_PUNCTUATION = ",;:–—";
+
+    private SentenceSegmenter() {
+    }
+
+    // Returns the pieces of the text in order, each no longer than maxWeight, without leading or trailing whitespace.
+    static List<String> segment(String text, int maxWeight) {
+        final List<String> pieces = new ArrayList<>();
+
+        // BreakIterator isn't thread safe, and long paragraphs are rare enough that making one each time is fine.
+        final BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.US);
+        sentences.setText(text);
+
+        int start = sentences.first();
+
+        for (int end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next()) {
+            String sentence = text.substring(start, end).strip();
+
+            while (sentence.length() > maxWeight) {
+                final int cut = findCut(sentence, maxWeight);
+                addPiece(pieces, sentence.substring(0, cut));
+                sentence = sentence.substring(cut).strip();
+            }
+
+            addPiece(pieces, sentence);
+        }
+
+        return pieces;
+    }
+
+    private static int findCut(String sentence, int maxWeight) {
+        // Cut after the last clause punctuation which is followed by a space and leaves a piece that fits.
+        for (int i = maxWeight - 1; i > 0; i--) {
+            if (CLAUSE_PUNCTUATION.indexOf(sentence.charAt(i - 1)) >= 0 && Character.isWhitespace(sentence.charAt(i))) {
+                return i;
+            }
+        }
+
+        for (int i = maxWeight; i > 0; i--) {
+            if (Character.isWhitespace(sentence.charAt(i))) {
+                return i;
+            }
+        }
+
+        // Don't split a surrogate pair.
+        return Character.isHighSurrogate(sentence.charAt(maxWeight - 1)) && maxWeight > 1 ? maxWeight - 1 : maxWeight;
+    }
+
+    private static void addPiece(List<String> pieces, String piece) {
+        final String stripped = piece.strip();
+
+        if (!stripped.isEmpty()) {
+            pieces.add(stripped);
+        }
+    }
+}
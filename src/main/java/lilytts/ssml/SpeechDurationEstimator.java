@@ -0,0 +1,80 @@
+package lilytts.ssml;
+
+import java.util.Map;
+
+// Predicts how long text takes to read aloud, from how many characters a second each voice reads at the default
+// rate and the prosody rate the SSML asks for.
+public class SpeechDurationEstimator {
+    public static final double DEFAULT_CHARACTERS_PER_SECOND = 15;
+
+    private final double defaultCharactersPerSecond;
+    private final Map<String, Double> voiceCharactersPerSecond;
+
+    public SpeechDurationEstimator() {
+        this(DEFAULT_CHARACTERS_PER_SECOND, Map.of());
+    }
+
+    // Voices missing from the map read at the default speed.
+    public SpeechDurationEstimator(double defaultCharactersPerSecond, Map<String, Double> voiceCharactersPerSecond) {
+        if (defaultCharactersPerSecond <= 0) {
+            throw new IllegalArgumentException("defaultCharactersPerSecond must be positive: " + defaultCharactersPerSecond);
+        }
+
+        voiceCharactersPerSecond.forEach((voiceName, charactersPerSecond) -> {
+            if (charactersPerSecond == null || charactersPerSecond <= 0) {
+                throw new IllegalArgumentException("Characters per second for " + voiceName + " must be positive: " + charactersPerSecond);
+            }
+        });
+
+        this.defaultCharactersPerSecond = defaultCharactersPerSecond;
+        this.voiceCharactersPerSecond = Map.copyOf(voiceCharactersPerSecond);
+    }
+
+    // The voice name and prosody rate may be null, for the service's default voice and rate.
+    public double getCharactersPerSecond(String voiceName, String prosodyRate) {
+        final double voiceSpeed = voiceName != null
+            ? voiceCharactersPerSecond.getOrDefault(voiceName, defaultCharactersPerSecond)
+            : defaultCharactersPerSecond;
+
+        return voiceSpeed * getRateMultiplier(prosodyRate);
+    }
+
+    public double getDurationSeconds(int characterCount, String voiceName, String prosodyRate) {
+        return characterCount / getCharactersPerSecond(voiceName, prosodyRate);
+    }
+
+    // Reads a prosody rate the way the speech service does: a named rate, a relative change like "+10%" or "-20%",
+    // or a plain multiplier like "1.5". Anything else is taken as the default rate.
+    static double getRateMultiplier(String prosodyRate) {
+        if (prosodyRate == null || prosodyRate.isBlank()) {
+            return 1;
+        }
+
+        final String rate = prosodyRate.strip().toLowerCase();
+
+        switch (rate) {
+            case "x-slow":
+                return 0.5;
+            case "slow":
+                return 0.64;
+            case "fast":
+                return 1.55;
+            case "x-fast":
+                return 2;
+            case "medium":
+            case "default":
+                return 1;
+        }
+
+        try {
+            final double multiplier = rate.endsWith("%")
+                ? 1 + Double.parseDouble(rate.substring(0, rate.length() - 1)) / 100
+                : Double.parseDouble(rate);
+
+            // The service clamps rates to between half and double speed.
+            return Math.min(2, Math.max(0.5, multiplier));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
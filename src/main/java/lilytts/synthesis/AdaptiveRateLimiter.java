@@ -0,0 +1,142 @@
+package lilytts.synthesis;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// A token bucket whose rate adapts to throttling (additive increase, multiplicative decrease). The bucket starts out
+// unlimited. The first time the service throttles us, the rate drops to half of the recently observed request rate
+// and the connection cools down for a while. After that, the rate creeps back up while requests keep succeeding.
+public class AdaptiveRateLimiter {
+    private static final long DEFAULT_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long INCREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final double MIN_RATE = 0.1;
+    private static final double ADDITIVE_INCREASE = 0.25;
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final LongSupplier clock;
+    private final long cooldownNanos;
+    private final ArrayDeque<Long> recentStarts = new ArrayDeque<>();
+    private double rate = Double.POSITIVE_INFINITY;
+    private double tokens = 0;
+    private long lastRefillNanos;
+    private long lastIncreaseNanos;
+    private long cooldownEndNanos;
+
+    public AdaptiveRateLimiter() {
+        this(System::nanoTime, DEFAULT_COOLDOWN_NANOS);
+    }
+
+    public AdaptiveRateLimiter(LongSupplier clock, long cooldownNanos) {
+        this.clock = clock;
+        this.cooldownNanos = cooldownNanos;
+        this.lastRefillNanos = clock.getAsLong();
+        this.cooldownEndNanos = this.lastRefillNanos;
+    }
+
+    // Returns 0 if a request could start right now, otherwise how long to wait before asking again.
+    public synchronized long getDelayNanos() {
+        final long now = clock.getAsLong();
+
+        if (now - cooldownEndNanos < 0) {
+            return cooldownEndNanos - now;
+        }
+
+        if (isUnlimited()) {
+            return 0;
+        }
+
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    // Takes a token for a request which is about to start. Callers should check getDelayNanos() first.
+    public synchronized void acquire() {
+        final long now = clock.getAsLong();
+
+        if (!isUnlimited()) {
+            refill(now);
+            tokens = Math.max(0, tokens - 1);
+        }
+
+        recentStarts.addLast(now);
+        trimRecentStarts(now);
+    }
+
+    public synchronized void onSuccess() {
+        final long now = clock.getAsLong();
+
+        if (isUnlimited() || isCoolingDown(now)) {
+            return;
+        }
+
+        if (now - lastIncreaseNanos >= INCREASE_INTERVAL_NANOS) {
+            rate += ADDITIVE_INCREASE;
+            lastIncreaseNanos = now;
+        }
+    }
+
+    // Returns false if the limiter was already cooling down, e.g. because several requests in flight were throttled
+    // at the same time. Only the first throttling signal lowers the rate.
+    public synchronized boolean onThrottled() {
+        final long now = clock.getAsLong();
+
+        if (isCoolingDown(now)) {
+            return false;
+        }
+
+        trimRecentStarts(now);
+
+        final double observedRate = recentStarts.isEmpty()
+            ? MIN_RATE
+            : recentStarts.size() / (Math.max(now - recentStarts.peekFirst(), TimeUnit.SECONDS.toNanos(1)) / (double) TimeUnit.SECONDS.toNanos(1));
+
+        rate = Math.max(MIN_RATE, Math.min(rate, observedRate) * DECREASE_FACTOR);
+        tokens = 0;
+        cooldownEndNanos = now + cooldownNanos;
+        lastRefillNanos = cooldownEndNanos;
+        lastIncreaseNanos = cooldownEndNanos;
+        return true;
+    }
+
+    // The current limit in requests per second. Infinite until the first time the connection is throttled.
+    public synchronized double getCurrentRate() {
+        return rate;
+    }
+
+    public synchronized boolean isCoolingDown() {
+        return isCoolingDown(clock.getAsLong());
+    }
+
+    public long getCooldownNanos() {
+        return cooldownNanos;
+    }
+
+    private boolean isUnlimited() {
+        return Double.isInfinite(rate);
+    }
+
+    private boolean isCoolingDown(long now) {
+        return now - cooldownEndNanos < 0;
+    }
+
+    private void refill(long now) {
+        final long elapsed = now - lastRefillNanos;
+
+        if (elapsed <= 0) {
+            return;
+        }
+
+        // Allow bursts of up to one second's worth of requests.
+        final double maxTokens = Math.max(1, rate);
+        tokens = Math.min(maxTokens, tokens + rate * elapsed / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    private void trimRecentStarts(long now) {
+        while (!recentStarts.isEmpty() && now - recentStarts.peekFirst() > RATE_WINDOW_NANOS) {
+            recentStarts.removeFirst();
+        }
+    }
+}
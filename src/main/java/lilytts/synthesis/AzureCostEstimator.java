@@ -1,37 +1,80 @@
 package lilytts.synthesis;
 
-import java.util.regex.Pattern;
-import static java.util.regex.Pattern.CASE_INSENSITIVE;
+public class AzureCostEstimator implements CostEstimator {
+    private static final double CHARACTER_PRICE_DOLLARS = 16.0 / 1000000.0;
 
-import java.util.regex.Matcher;
+    // Azure doesn't charge for the XML declaration or the speak and voice elements. Everything else counts, markup
+    // included, with every Unicode code point counted as 1 character.
+    @Override
+    public long countBillableCharacters(String ssml) {
+        final int length = ssml.length();
+        long characterCount = 0;
+        int i = 0;
 
-public class AzureCostEstimator implements CostEstimator {
-    private static final Pattern[] EXCLUDED_PATTERNS = new Pattern[] {
-        Pattern.compile("<\\?xml [^>]+ \\?>", CASE_INSENSITIVE),
-        Pattern.compile("<speak [^>]+>", CASE_INSENSITIVE),
-        Pattern.compile("<\\/speak>", CASE_INSENSITIVE),
-        Pattern.compile("<voice [^>]+>", CASE_INSENSITIVE),
-        Pattern.compile("<\\/voice>", CASE_INSENSITIVE),
-    };
+        while (i < length) {
+            final char c = ssml.charAt(i);
 
-    private static final double CHARACTER_PRICE_DOLLARS = 16.0 / 1000000.0;
+            if (c == '<') {
+                final int excludedEnd = findExcludedTagEnd(ssml, i);
+
+                if (excludedEnd > i) {
+                    i = excludedEnd;
+                    continue;
+                }
+            }
 
-    public double getEstimatedCost(String ssmlContent) {
-        int characterCount = countCharacters(ssmlContent);
+            // The low half of a surrogate pair belongs to the code point that was already counted.
+            if (!(Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(ssml.charAt(i - 1)))) {
+                characterCount++;
+            }
 
-        for (Pattern pattern : EXCLUDED_PATTERNS) {
-            final Matcher matcher = pattern.matcher(ssmlContent);
+            i++;
+        }
+
+        return characterCount;
+    }
 
-            while (matcher.find()) {
-                characterCount -= countCharacters(matcher.group());
+    @Override
+    public double getCostForCharacters(long billableCharacters) {
+        return ((double)billableCharacters) * CHARACTER_PRICE_DOLLARS;
+    }
+
+    // Returns the index just past the free tag starting at the given '<', or -1 if it isn't one. The rules are the
+    // same as the patterns this estimator used to match: "<?xml ... ?>", "<speak ...>", "</speak>", "<voice ...>" and
+    // "</voice>", ignoring case, where the opening tags have at least one character after the name.
+    private static int findExcludedTagEnd(String ssml, int start) {
+        if (startsWithIgnoreCase(ssml, start, "</speak>")) {
+            return start + "</speak>".length();
+        }
+
+        if (startsWithIgnoreCase(ssml, start, "</voice>")) {
+            return start + "</voice>".length();
+        }
+
+        final int nameEnd;
+
+        if (startsWithIgnoreCase(ssml, start, "<speak ")) {
+            nameEnd = start + "<speak ".length();
+        } else if (startsWithIgnoreCase(ssml, start, "<voice ")) {
+            nameEnd = start + "<voice ".length();
+        } else if (startsWithIgnoreCase(ssml, start, "<?xml ")) {
+            final int tagEnd = ssml.indexOf('>', start);
+
+            // Needs at least one character between "<?xml " and the closing " ?>".
+            if (tagEnd >= start + "<?xml ".length() + 3 && ssml.charAt(tagEnd - 1) == '?' && ssml.charAt(tagEnd - 2) == ' ') {
+                return tagEnd + 1;
             }
+
+            return -1;
+        } else {
+            return -1;
         }
 
-        return ((double)characterCount) * CHARACTER_PRICE_DOLLARS;
+        final int tagEnd = ssml.indexOf('>', nameEnd);
+        return tagEnd > nameEnd ? tagEnd + 1 : -1;
     }
 
-    private static int countCharacters(String value) {
-        // For Azure pricing, every Unicode code point is counted as 1 character.
-        return value.codePointCount(0, value.length());
+    private static boolean startsWithIgnoreCase(String value, int offset, String prefix) {
+        return value.regionMatches(true, offset, prefix, 0, prefix.length());
     }
 }
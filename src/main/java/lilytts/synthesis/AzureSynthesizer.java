@@ -1,72 +1,354 @@
 package lilytts.synthesis;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import com.microsoft.cognitiveservices.speech.CancellationErrorCode;
 import com.microsoft.cognitiveservices.speech.CancellationReason;
+import com.microsoft.cognitiveservices.speech.Connection;
 import com.microsoft.cognitiveservices.speech.ResultReason;
 import com.microsoft.cognitiveservices.speech.SpeechConfig;
 import com.microsoft.cognitiveservices.speech.SpeechSynthesisCancellationDetails;
 import com.microsoft.cognitiveservices.speech.SpeechSynthesisOutputFormat;
 import com.microsoft.cognitiveservices.speech.SpeechSynthesisResult;
-import com.microsoft.cognitiveservices.speech.audio.AudioConfig;
+
+import lilytts.concurrent.DaemonThreadFactory;
+import lilytts.progress.ProgressListener;
 
 public class AzureSynthesizer implements SpeechSynthesizer {
     private static final Pattern REQUEST_THROTTLED_MESSAGE_PATTERN = Pattern.compile(".+The request is throttled because you have exceeded.+", Pattern.CASE_INSENSITIVE);
+    private static final int DEFAULT_POOL_SIZE = 1;
+    private static final SpeechSynthesisOutputFormat OUTPUT_FORMAT = SpeechSynthesisOutputFormat.Audio48Khz192KBitRateMonoMp3;
+
+    // How long close() waits for work still running in the background: connections being opened by a warm-up, and
+    // stopped requests being cleaned up.
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    // How long to wait for the result of a stopped request, which has to be closed to free its native memory.
+    private static final long STOPPED_RESULT_TIMEOUT_SECONDS = 30;
+
+    @FunctionalInterface
+    private interface AudioWriter {
+        void write(byte[] audioData) throws IOException;
+    }
+
+    // A native synthesizer with no audio output (the audio is returned in the result) and its service connection.
+    private static class PooledSynthesizer implements AutoCloseable {
+        private final com.microsoft.cognitiveservices.speech.SpeechSynthesizer synthesizer;
+        private final Connection connection;
+        private Future<SpeechSynthesisResult> stoppedResult = null;
+
+        PooledSynthesizer(SpeechConfig speechConfig) {
+            this.synthesizer = new com.microsoft.cognitiveservices.speech.SpeechSynthesizer(speechConfig, null);
+            this.connection = Connection.fromSpeechSynthesizer(this.synthesizer);
+        }
+
+        void openConnection() {
+            this.connection.openConnection(false);
+        }
+
+        // Waits for the result in a way that can be interrupted, so a request that is no longer needed can be stopped.
+        SpeechSynthesisResult speakSsml(String ssml) throws InterruptedException, SpeechSynthesisException {
+            final Future<SpeechSynthesisResult> pendingResult = this.synthesizer.SpeakSsmlAsync(ssml);
+
+            try {
+                return pendingResult.get();
+            } catch (InterruptedException e) {
+                // The result still arrives after the request is stopped, and has to be closed when it does.
+                this.synthesizer.StopSpeakingAsync();
+                this.stoppedResult = pendingResult;
+                throw e;
+            } catch (ExecutionException e) {
+                throw new SpeechSynthesisException("Unexpected error from the Azure speech service: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        boolean hasStoppedRequest() {
+            return this.stoppedResult != null;
+        }
+
+        // Waits for the result of the stopped request and closes it, then closes the synthesizer. Can take a while,
+        // so it's done in the background rather than by the cancelled caller.
+        void closeAfterStoppedRequest() {
+            try {
+                this.stoppedResult.get(STOPPED_RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS).close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException | CancellationException e) {
+                // There is no result to close.
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            this.connection.close();
+            this.synthesizer.close();
+        }
+    }
 
     private final String displayName;
     private final SpeechConfig speechConfig;
+    private final int poolSize;
+    private final BlockingQueue<PooledSynthesizer> idleSynthesizers = new LinkedBlockingQueue<>();
+    private final AtomicInteger createdSynthesizers = new AtomicInteger();
+    private volatile boolean closed = false;
+    private ExecutorService warmUpExecutor = null;
+    private final ExecutorService cleanupExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("lilytts-cleanup"));
 
     public static AzureSynthesizer fromSubscription(String displayName, String subscriptionKey, String serviceRegion) {
+        return fromSubscription(displayName, subscriptionKey, serviceRegion, DEFAULT_POOL_SIZE);
+    }
+
+    public static AzureSynthesizer fromSubscription(String displayName, String subscriptionKey, String serviceRegion, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1: " + poolSize);
+        }
+
         SpeechConfig config = SpeechConfig.fromSubscription(subscriptionKey, serviceRegion);
-        config.setSpeechSynthesisOutputFormat(SpeechSynthesisOutputFormat.Audio48Khz192KBitRateMonoMp3);
+        config.setSpeechSynthesisOutputFormat(OUTPUT_FORMAT);
 
-        return new AzureSynthesizer(displayName, config);
+        return new AzureSynthesizer(displayName, config, poolSize);
     }
 
-    private AzureSynthesizer(String displayName, SpeechConfig speechConfig) {
+    private AzureSynthesizer(String displayName, SpeechConfig speechConfig, int poolSize) {
         this.displayName = displayName;
         this.speechConfig = speechConfig;
+        this.poolSize = poolSize;
     }
 
     public String getDisplayName() {
         return this.displayName;
     }
 
+    @Override
+    public String getOutputFormat() {
+        return OUTPUT_FORMAT.name();
+    }
+
+    // Opens the service connections for the whole pool in the background, so the first requests don't pay for
+    // connection setup. Returns right away.
+    @Override
+    public synchronized void warmUp() {
+        if (this.closed || this.warmUpExecutor != null) {
+            return;
+        }
+
+        // Kept so close() can wait for connections which are still being opened.
+        this.warmUpExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("lilytts-warmup"));
+
+        while (reservePoolSlot()) {
+            this.warmUpExecutor.execute(() -> {
+                if (this.closed) {
+                    createdSynthesizers.decrementAndGet();
+                    return;
+                }
+
+                try {
+                    final PooledSynthesizer synthesizer = new PooledSynthesizer(this.speechConfig);
+                    synthesizer.openConnection();
+                    returnSynthesizer(synthesizer);
+                } catch (RuntimeException e) {
+                    // Not fatal: the slot is released and the connection will be opened when it's first used.
+                    createdSynthesizers.decrementAndGet();
+                }
+            });
+        }
+
+        this.warmUpExecutor.shutdown();
+    }
+
     public void synthesizeSsmlToFile(String ssml, String filePath) throws SpeechSynthesisException {
-        final AudioConfig fileOutput = AudioConfig.fromWavFileOutput(filePath);
-        final SpeechSynthesisResult result;
+        synthesize(ssml, filePath, audioData -> Files.write(Path.of(filePath), audioData));
+    }
+
+    @Override
+    public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        synthesize(ssml, outputFilePath, audioData -> output.write(audioData));
+    }
+
+    private void synthesize(String ssml, String filePath, AudioWriter audioWriter) throws SpeechSynthesisException {
+        final PooledSynthesizer synthesizer = borrowSynthesizer();
+        boolean reusable = true;
+
+        try (SpeechSynthesisResult result = synthesizer.speakSsml(ssml)) {
+            // Checks result.
+            if (result.getReason() == ResultReason.SynthesizingAudioCompleted) {
+                writeAudio(result, filePath, audioWriter);
+                return;
+            } else if (result.getReason() == ResultReason.Canceled) {
+                SpeechSynthesisCancellationDetails cancellation = SpeechSynthesisCancellationDetails.fromResult(result);
+
+                final StringBuilder errorBuilder = new StringBuilder("Encountered a synthesis failure.");
+                errorBuilder.append("Failed to convert " + filePath + System.lineSeparator());
+                errorBuilder.append("Reason: " + cancellation.getReason() + System.lineSeparator());
 
-        try (com.microsoft.cognitiveservices.speech.SpeechSynthesizer synthesizer =
-                new com.microsoft.cognitiveservices.speech.SpeechSynthesizer(this.speechConfig, fileOutput)) {
-            result = synthesizer.SpeakSsml(ssml);
+                if (cancellation.getReason() == CancellationReason.Error) {
+                    errorBuilder.append("ErrorCode: " + cancellation.getErrorCode() + System.lineSeparator());
+                    errorBuilder.append("ErrorDetails: " + cancellation.getErrorDetails() + System.lineSeparator());
+
+                    // Don't hand a broken connection to the next request.
+                    reusable = cancellation.getErrorCode() != CancellationErrorCode.ConnectionFailure;
+                }
+
+                if (isThrottlingError(cancellation)) {
+                    throw new SpeechSynthesisThrottledException(errorBuilder.toString());
+                } else if (isRequestError(cancellation)) {
+                    throw new SpeechSynthesisRequestException(errorBuilder.toString());
+                } else {
+                    throw new SpeechSynthesisException(errorBuilder.toString());
+                }
+            } else {
+                throw new SpeechSynthesisException("Unexpected result reason: " + result.getReason());
+            }
+        } catch (InterruptedException e) {
+            // The request was cancelled part way through, so don't trust the synthesizer with another one.
+            reusable = false;
+            Thread.currentThread().interrupt();
+            throw new SpeechSynthesisException("Cancelled while converting " + filePath, e);
+        } finally {
+            if (reusable) {
+                returnSynthesizer(synthesizer);
+            } else {
+                discardSynthesizer(synthesizer);
+            }
         }
+    }
 
-        // Checks result.
-        if (result.getReason() == ResultReason.SynthesizingAudioCompleted) {
-            return;
-        } else if (result.getReason() == ResultReason.Canceled) {
-            SpeechSynthesisCancellationDetails cancellation = SpeechSynthesisCancellationDetails.fromResult(result);
+    @Override
+    public void close() {
+        final ExecutorService runningWarmUp;
 
-            final StringBuilder errorBuilder = new StringBuilder("Encountered a synthesis failure.");
-            errorBuilder.append("Failed to convert " + filePath + System.lineSeparator());
-            errorBuilder.append("Reason: " + cancellation.getReason() + System.lineSeparator());
+        synchronized (this) {
+            this.closed = true;
+            runningWarmUp = this.warmUpExecutor;
+        }
+
+        // A warm-up which is still opening connections would otherwise hand them to the pool after it was emptied.
+        // Warm-ups which haven't started yet see the synthesizer is closed and don't open anything.
+        if (runningWarmUp != null) {
+            awaitBackgroundWork(runningWarmUp);
+        }
 
-            if (cancellation.getReason() == CancellationReason.Error) {
-                errorBuilder.append("ErrorCode: " + cancellation.getErrorCode() + System.lineSeparator());
-                errorBuilder.append("ErrorDetails: " + cancellation.getErrorDetails() + System.lineSeparator());
+        // Stopped requests are cleaned up before the config they were made with goes away.
+        this.cleanupExecutor.shutdown();
+        awaitBackgroundWork(this.cleanupExecutor);
+
+        PooledSynthesizer synthesizer = idleSynthesizers.poll();
+
+        while (synthesizer != null) {
+            synthesizer.close();
+            synthesizer = idleSynthesizers.poll();
+        }
+
+        this.speechConfig.close();
+    }
+
+    private static void awaitBackgroundWork(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
             }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            if (isThrottlingError(cancellation)) {
-                throw new SpeechSynthesisThrottledException(errorBuilder.toString());
-            } else {
-                throw new SpeechSynthesisException(errorBuilder.toString());
+    private static void writeAudio(SpeechSynthesisResult result, String filePath, AudioWriter audioWriter) throws SpeechSynthesisException {
+        try {
+            audioWriter.write(result.getAudioData());
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to write synthesized audio to " + filePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    private PooledSynthesizer borrowSynthesizer() throws SpeechSynthesisException {
+        try {
+            while (true) {
+                final PooledSynthesizer idleSynthesizer = idleSynthesizers.poll();
+
+                if (idleSynthesizer != null) {
+                    return idleSynthesizer;
+                }
+
+                if (reservePoolSlot()) {
+                    try {
+                        return new PooledSynthesizer(this.speechConfig);
+                    } catch (RuntimeException e) {
+                        createdSynthesizers.decrementAndGet();
+                        throw e;
+                    }
+                }
+
+                // The pool is full, so wait for another request to finish. Check again periodically in case a
+                // slot was freed up by a failed warm-up or a discarded connection.
+                final PooledSynthesizer returnedSynthesizer = idleSynthesizers.poll(100, TimeUnit.MILLISECONDS);
+
+                if (returnedSynthesizer != null) {
+                    return returnedSynthesizer;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpeechSynthesisException("Interrupted while waiting for an Azure speech synthesizer.", e);
+        }
+    }
+
+    private void returnSynthesizer(PooledSynthesizer synthesizer) {
+        if (this.closed) {
+            discardSynthesizer(synthesizer);
         } else {
-            throw new SpeechSynthesisException("Unexpected result reason: " + result.getReason());
+            idleSynthesizers.offer(synthesizer);
         }
     }
 
+    private void discardSynthesizer(PooledSynthesizer synthesizer) {
+        if (!synthesizer.hasStoppedRequest()) {
+            synthesizer.close();
+            createdSynthesizers.decrementAndGet();
+            return;
+        }
+
+        // The pool slot is only given back once the stopped request's native resources are freed.
+        final Runnable cleanup = () -> {
+            synthesizer.closeAfterStoppedRequest();
+            createdSynthesizers.decrementAndGet();
+        };
+
+        try {
+            this.cleanupExecutor.execute(cleanup);
+        } catch (RejectedExecutionException e) {
+            // Already closed, so there is no background thread to hand it to.
+            cleanup.run();
+        }
+    }
+
+    private boolean reservePoolSlot() {
+        return createdSynthesizers.getAndUpdate(x -> x < this.poolSize ? x + 1 : x) < this.poolSize;
+    }
+
+    // Errors in the request itself, as opposed to the connection, the subscription or the service.
+    private static boolean isRequestError(SpeechSynthesisCancellationDetails cancellation) {
+        return cancellation.getReason() == CancellationReason.Error
+            && cancellation.getErrorCode() == CancellationErrorCode.BadRequest;
+    }
+
     private static boolean isThrottlingError(SpeechSynthesisCancellationDetails cancellation) {
         return cancellation.getReason() == CancellationReason.Error
             && cancellation.getErrorCode() == CancellationErrorCode.ConnectionFailure
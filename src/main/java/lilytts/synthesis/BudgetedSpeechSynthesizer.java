@@ -0,0 +1,118 @@
+package lilytts.synthesis;
+
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.util.List;
+
+import lilytts.progress.ProgressListener;
+import lilytts.ssml.SSMLChunk;
+
+// Charges each request against a CostBudget, and refuses requests the budget can't cover before they are sent.
+public class BudgetedSpeechSynthesizer implements SpeechSynthesizer {
+    private final SpeechSynthesizer inner;
+    private final CostBudget budget;
+    private final CostEstimator costEstimator;
+
+    public BudgetedSpeechSynthesizer(final SpeechSynthesizer inner, final CostBudget budget, final CostEstimator costEstimator) {
+        this.inner = inner;
+        this.budget = budget;
+        this.costEstimator = costEstimator;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return inner.getDisplayName();
+    }
+
+    @Override
+    public String getOutputFormat() {
+        return inner.getOutputFormat();
+    }
+
+    @Override
+    public List<ConnectionStatus> getConnectionStatus() {
+        return inner.getConnectionStatus();
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return inner.getCacheStatistics();
+    }
+
+    @Override
+    public void warmUp() {
+        inner.warmUp();
+    }
+
+    @Override
+    public void close() {
+        inner.close();
+    }
+
+    @Override
+    public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
+        synthesizeChunkToFile(SSMLChunk.uncounted(ssml), outputFilePath);
+    }
+
+    @Override
+    public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        synthesizeChunkToStream(SSMLChunk.uncounted(ssml), outputFilePath, output, listener);
+    }
+
+    @Override
+    public void synthesizeChunkToFile(SSMLChunk chunk, String outputFilePath) throws SpeechSynthesisException {
+        final double cost = reserveCost(chunk, outputFilePath);
+
+        try {
+            inner.synthesizeChunkToFile(chunk, outputFilePath);
+        } catch (SpeechSynthesisException | RuntimeException e) {
+            settleFailedRequest(cost);
+            throw e;
+        }
+
+        budget.commit(cost);
+    }
+
+    @Override
+    public void synthesizeChunkToStream(SSMLChunk chunk, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        final double cost = reserveCost(chunk, outputFilePath);
+
+        try {
+            inner.synthesizeChunkToStream(chunk, outputFilePath, output, listener);
+        } catch (SpeechSynthesisException | RuntimeException e) {
+            settleFailedRequest(cost);
+            throw e;
+        }
+
+        budget.commit(cost);
+    }
+
+    // A request which was stopped part way through, e.g. because another chunk failed or the run was cancelled, may
+    // already have been billed, so it stays charged. Other failures happen before the service does any work, like a
+    // request it rejects, so they get their cost back.
+    private void settleFailedRequest(double cost) {
+        if (Thread.currentThread().isInterrupted()) {
+            budget.commit(cost);
+        } else {
+            budget.release(cost);
+        }
+    }
+
+    // Chunks written from content come with their billable characters, so only other SSML has to be counted here.
+    private double reserveCost(SSMLChunk chunk, String outputFilePath) throws CostBudgetExceededException {
+        final double cost = chunk.isCounted()
+            ? costEstimator.getCostForCharacters(chunk.getBillableCharacters())
+            : costEstimator.getEstimatedCost(chunk.getSsml());
+
+        if (!budget.reserve(cost)) {
+            final DecimalFormat costFormatter = new DecimalFormat("$######0.00");
+
+            throw new CostBudgetExceededException(String.format("Converting %s would exceed the cost budget of %s. Already spent %s.",
+                outputFilePath,
+                costFormatter.format(budget.getMaxCost()),
+                costFormatter.format(budget.getSpentCost())));
+        }
+
+        return cost;
+    }
+}
@@ -0,0 +1,25 @@
+package lilytts.synthesis;
+
+public class CacheStatistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    public CacheStatistics(long hits, long misses, long evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+}
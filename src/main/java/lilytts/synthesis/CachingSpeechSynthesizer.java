@@ -0,0 +1,153 @@
+package lilytts.synthesis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lilytts.progress.ProgressListener;
+import lilytts.ssml.SSMLChunk;
+
+// Checks a SynthesisCache before asking the inner synthesizer for audio, so the same SSML is only paid for once.
+public class CachingSpeechSynthesizer implements SpeechSynthesizer {
+    private final SpeechSynthesizer inner;
+    private final SynthesisCache cache;
+
+    // Requests which are synthesizing right now, so identical requests wait for them instead of paying again.
+    private final ConcurrentMap<String, CompletableFuture<Void>> inFlightRequests = new ConcurrentHashMap<>();
+
+    // Counted once per request, when it first looks in the cache, so a miss counts even if its synthesis fails.
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public CachingSpeechSynthesizer(final SpeechSynthesizer inner, final SynthesisCache cache) {
+        this.inner = inner;
+        this.cache = cache;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return inner.getDisplayName();
+    }
+
+    @Override
+    public String getOutputFormat() {
+        return inner.getOutputFormat();
+    }
+
+    @Override
+    public List<ConnectionStatus> getConnectionStatus() {
+        return inner.getConnectionStatus();
+    }
+
+    @Override
+    public void warmUp() {
+        inner.warmUp();
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return new CacheStatistics(hitCount.get(), missCount.get(), cache.getEvictionCount());
+    }
+
+    @Override
+    public void close() {
+        inner.close();
+    }
+
+    @Override
+    public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
+        synthesizeChunkToFile(SSMLChunk.uncounted(ssml), outputFilePath);
+    }
+
+    @Override
+    public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        synthesizeChunkToStream(SSMLChunk.uncounted(ssml), outputFilePath, output, listener);
+    }
+
+    @Override
+    public void synthesizeChunkToFile(SSMLChunk chunk, String outputFilePath) throws SpeechSynthesisException {
+        try (InputStream cachedAudio = getOrSynthesize(chunk)) {
+            Files.copy(cachedAudio, Path.of(outputFilePath), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to copy cached audio to " + outputFilePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void synthesizeChunkToStream(SSMLChunk chunk, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        try (InputStream cachedAudio = getOrSynthesize(chunk)) {
+            cachedAudio.transferTo(output);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to copy cached audio to " + outputFilePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    // The caller closes the returned stream.
+    private InputStream getOrSynthesize(SSMLChunk chunk) throws SpeechSynthesisException {
+        final String key = SynthesisCache.getKey(chunk.getSsml(), inner.getOutputFormat());
+
+        boolean firstLookup = true;
+
+        while (true) {
+            final InputStream cachedAudio = openCachedAudio(key);
+
+            if (firstLookup) {
+                (cachedAudio != null ? hitCount : missCount).incrementAndGet();
+                firstLookup = false;
+            }
+
+            if (cachedAudio != null) {
+                return cachedAudio;
+            }
+
+            final CompletableFuture<Void> request = new CompletableFuture<>();
+            final CompletableFuture<Void> existingRequest = inFlightRequests.putIfAbsent(key, request);
+
+            if (existingRequest != null) {
+                // Wait for the other request, then look again. If it failed, this request takes over.
+                existingRequest.exceptionally(error -> null).join();
+                continue;
+            }
+
+            try {
+                return synthesizeIntoCache(key, chunk);
+            } finally {
+                inFlightRequests.remove(key, request);
+                request.complete(null);
+            }
+        }
+    }
+
+    private InputStream openCachedAudio(String key) throws SpeechSynthesisException {
+        try {
+            return cache.open(key);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to read from synthesis cache at " + cache.getDirectory().getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private InputStream synthesizeIntoCache(String key, SSMLChunk chunk) throws SpeechSynthesisException {
+        File tempFile = null;
+
+        try {
+            tempFile = cache.createTempFile();
+            inner.synthesizeChunkToFile(chunk, tempFile.getAbsolutePath());
+            return cache.put(key, tempFile);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to write to synthesis cache at " + cache.getDirectory().getPath() + ": " + e.getMessage(), e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+}
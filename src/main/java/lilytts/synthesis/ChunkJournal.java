@@ -0,0 +1,175 @@
+package lilytts.synthesis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// A write-ahead log of the chunks of one output file, so an interrupted file can be resumed exactly. Each line is
+// "<status> <ssml hash> <byte length> <crc32>", and the last line for a hash wins. Lines are appended and synced to
+// disk before the journal call returns. A line torn by a crash doesn't parse and is ignored, which at worst means the
+// chunk is synthesized again.
+class ChunkJournal {
+    enum Status {
+        Pending,
+        Done
+    }
+
+    private static class Entry {
+        private final Status status;
+        private final long length;
+        private final long checksum;
+
+        Entry(Status status, long length, long checksum) {
+            this.status = status;
+            this.length = length;
+            this.checksum = checksum;
+        }
+    }
+
+    // Hex encoded SHA-256.
+    private static final int HASH_LENGTH = 64;
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // Set when a crash cut the last line short, so the next line starts on a line of its own instead of running on
+    // from the torn one.
+    private boolean endsWithTornLine = false;
+
+    private ChunkJournal(File file) {
+        this.file = file;
+    }
+
+    static ChunkJournal open(File file) throws IOException {
+        final ChunkJournal journal = new ChunkJournal(file);
+
+        if (!file.exists()) {
+            return journal;
+        }
+
+        final String contents = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+
+        try (BufferedReader reader = new BufferedReader(new StringReader(contents))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                journal.readLine(line);
+            }
+        }
+
+        journal.endsWithTornLine = !contents.isEmpty() && !contents.endsWith("\n");
+        return journal;
+    }
+
+    synchronized Set<String> getHashes() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    // Returns true only if the chunk was finished and its file still has exactly the bytes that were recorded.
+    synchronized boolean isDone(String hash, File chunkFile) throws IOException {
+        final Entry entry = entries.get(hash);
+
+        if (entry == null || entry.status != Status.Done) {
+            return false;
+        }
+
+        return chunkFile.exists() && chunkFile.length() == entry.length && getChecksum(chunkFile) == entry.checksum;
+    }
+
+    synchronized void markPending(String hash) throws IOException {
+        append(hash, new Entry(Status.Pending, 0, 0));
+    }
+
+    synchronized void markDone(String hash, File chunkFile) throws IOException {
+        append(hash, new Entry(Status.Done, chunkFile.length(), getChecksum(chunkFile)));
+    }
+
+    // Forgets every chunk except the given ones, rewriting the journal so it doesn't grow across runs.
+    synchronized void retainOnly(Set<String> hashes) throws IOException {
+        if (!entries.keySet().retainAll(hashes)) {
+            return;
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                output.write(formatLine(entry.getKey(), entry.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+
+            output.getFD().sync();
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        endsWithTornLine = false;
+    }
+
+    // Called once the output file is complete and the chunks are no longer needed.
+    synchronized void delete() {
+        entries.clear();
+        file.delete();
+    }
+
+    private void append(String hash, Entry entry) throws IOException {
+        final String line = (endsWithTornLine ? System.lineSeparator() : "") + formatLine(hash, entry);
+
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write(line.getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        }
+
+        endsWithTornLine = false;
+
+        entries.put(hash, entry);
+    }
+
+    private void readLine(String line) {
+        final String[] fields = line.split(" ");
+
+        if (fields.length != 4 || fields[1].length() != HASH_LENGTH) {
+            return;
+        }
+
+        try {
+            entries.put(fields[1], new Entry(Status.valueOf(fields[0]), Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+        } catch (IllegalArgumentException e) {
+            // A torn or garbled line. Treat the chunk as if it was never recorded.
+        }
+    }
+
+    private static String formatLine(String hash, Entry entry) {
+        return String.format("%s %s %d %d%n", entry.status, hash, entry.length, entry.checksum);
+    }
+
+    private static long getChecksum(File chunkFile) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream input = new FileInputStream(chunkFile)) {
+            int bytesRead;
+
+            while ((bytesRead = input.read(buffer)) > 0) {
+                crc.update(buffer, 0, bytesRead);
+            }
+        }
+
+        return crc.getValue();
+    }
+}
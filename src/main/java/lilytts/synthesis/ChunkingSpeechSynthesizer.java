@@ -1,26 +1,63 @@
 package lilytts.synthesis;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import lilytts.StringUtil;
 import lilytts.audio.AudioFileMerger;
+import lilytts.concurrent.DaemonThreadFactory;
+import lilytts.content.ContentItem;
 import lilytts.progress.NullProgressListener;
 import lilytts.progress.ProgressEvent;
 import lilytts.progress.ProgressListener;
+import lilytts.ssml.SSMLChunk;
 import lilytts.ssml.SSMLSplitter;
+import lilytts.ssml.SSMLWriter;
 
 public class ChunkingSpeechSynthesizer implements SpeechSynthesizer {
+    private static final int DEFAULT_MAX_CONCURRENT_CHUNKS = 1;
+
+    // Enough of the SSML hash to tell the chunks of one file apart.
+    private static final int CHUNK_FILE_HASH_LENGTH = 16;
+
     private final SpeechSynthesizer inner;
     private final SSMLSplitter splitter;
     private final AudioFileMerger merger;
+    private final ExecutorService chunkExecutor;
 
     public ChunkingSpeechSynthesizer(final SpeechSynthesizer inner, final SSMLSplitter splitter, final AudioFileMerger merger) {
+        this(inner, splitter, merger, DEFAULT_MAX_CONCURRENT_CHUNKS);
+    }
+
+    public ChunkingSpeechSynthesizer(final SpeechSynthesizer inner, final SSMLSplitter splitter, final AudioFileMerger merger, final int maxConcurrentChunks) {
+        if (maxConcurrentChunks < 1) {
+            throw new IllegalArgumentException("maxConcurrentChunks must be at least 1: " + maxConcurrentChunks);
+        }
+
         this.inner = inner;
         this.splitter = splitter;
         this.merger = merger;
+        this.chunkExecutor = Executors.newFixedThreadPool(maxConcurrentChunks, new DaemonThreadFactory("lilytts-chunk"));
     }
 
     @Override
@@ -28,6 +65,32 @@ public class ChunkingSpeechSynthesizer implements SpeechSynthesizer {
         return inner.getDisplayName();
     }
 
+    @Override
+    public String getOutputFormat() {
+        return inner.getOutputFormat();
+    }
+
+    @Override
+    public List<ConnectionStatus> getConnectionStatus() {
+        return inner.getConnectionStatus();
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return inner.getCacheStatistics();
+    }
+
+    @Override
+    public void warmUp() {
+        inner.warmUp();
+    }
+
+    @Override
+    public void close() {
+        this.chunkExecutor.shutdownNow();
+        inner.close();
+    }
+
     @Override
     public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
         this.synthesizeSsmlToFile(ssml, outputFilePath, new NullProgressListener());
@@ -35,55 +98,304 @@ public class ChunkingSpeechSynthesizer implements SpeechSynthesizer {
 
     @Override
     public void synthesizeSsmlToFile(String ssml, String outputFilePath, ProgressListener listener) throws SpeechSynthesisException {
-        final List<String> chunks = this.splitter.splitSSML(ssml);
-        final List<File> completedChunkFiles = new ArrayList<>();
+        final List<SSMLChunk> chunks = splitSSML(ssml);
         final File outputFile = new File(outputFilePath);
 
-        if (outputFile.exists() && outputFile.length() > 0) {
+        // If the file is small enough we don't need to split it. It still goes to a temporary file first, so a crash
+        // part way through never leaves a half written output file.
+        if (chunks.size() <= 1) {
+            final File partialFile = new File(StringUtil.removeFileExtension(outputFilePath) + " partial.mp3");
+
+            listener.onProgress(new ProgressEvent("Synthesizing audio", 0, ssml.length()));
+
+            try {
+                inner.synthesizeSsmlToFile(ssml, partialFile.getAbsolutePath());
+                moveAtomically(partialFile, outputFile);
+            } catch (IOException e) {
+                throw new SpeechSynthesisException("Unable to move synthesized audio to " + outputFilePath + ": " + e.getMessage(), e);
+            } finally {
+                partialFile.delete();
+            }
+
+            listener.onProgress(new ProgressEvent("Done!", ssml.length(), ssml.length()));
+            return;
+        }
+
+        final ChunkJournal journal = openJournal(outputFilePath);
+        final List<File> chunkFiles = synthesizeChunks(journal, chunks, outputFilePath, listener);
+        final long maxProgress = getMaxProgress(chunks);
+
+        // Merge all the synthesized chunks into one final audio file.
+        final String mergeMessage = String.format("Merging %d chunks", chunks.size());
+        listener.onProgress(new ProgressEvent(mergeMessage, maxProgress, maxProgress));
+
+        // Merge into a temporary file first, so the output file only appears once it is complete.
+        final File mergedAudioFile = new File(StringUtil.removeFileExtension(outputFilePath) + " merged.mp3");
+        merger.mergeAudioFiles(chunkFiles, mergedAudioFile);
+
+        try {
+            moveAtomically(mergedAudioFile, outputFile);
+        } catch (IOException e) {
+            mergedAudioFile.delete();
+            throw new SpeechSynthesisException("Unable to move merged audio to " + outputFilePath + ": " + e.getMessage(), e);
+        }
+
+        // Delete the temporary audio chunks.
+        listener.onProgress(new ProgressEvent("Done!", maxProgress, maxProgress));
+        deleteChunkFiles(journal, chunkFiles);
+    }
+
+    @Override
+    public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        final List<SSMLChunk> chunks = splitSSML(ssml);
+
+        if (chunks.size() <= 1) {
+            synthesizeWholeFileToStream(SSMLChunk.uncounted(ssml), outputFilePath, output, listener);
             return;
         }
 
-        // If the file is small enough we don't need to split it.
+        synthesizeChunksToStream(chunks, outputFilePath, output, listener);
+    }
+
+    // Splits the content into chunks directly, so the whole document is never written out and parsed back.
+    @Override
+    public void synthesizeContentToStream(List<ContentItem> content, SSMLWriter ssmlWriter, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        final List<SSMLChunk> chunks = this.splitter.splitContent(content, ssmlWriter);
+
+        // Send a file small enough for one request as the whole document, the same as synthesizeSsmlToStream. The
+        // document bills for the same characters as its one chunk.
         if (chunks.size() <= 1) {
-            listener.onProgress(new ProgressEvent("Synthesizing audio", 0, ssml.length()));
-            inner.synthesizeSsmlToFile(ssml, outputFilePath);
-            listener.onProgress(new ProgressEvent("Done!", ssml.length(), ssml.length()));
+            synthesizeWholeFileToStream(new SSMLChunk(ssmlWriter.toSSML(content), chunks.get(0).getBillableCharacters()), outputFilePath, output, listener);
             return;
         }
 
-        final long maxProgress = chunks.stream().collect(Collectors.summingLong(x -> x.length()));
-        long currentProgress = 0;
+        synthesizeChunksToStream(chunks, outputFilePath, output, listener);
+    }
 
-        for (int i=0; i < chunks.size(); i++) {
-            final String progressMessage = String.format("Synthesizing part %d of %d", i+1, chunks.size());
-            listener.onProgress(new ProgressEvent(progressMessage, currentProgress, maxProgress));
+    // Files which are split into chunks are billed for the markup each chunk repeats, so count the chunks.
+    @Override
+    public long appendSSML(Iterable<ContentItem> content, SSMLWriter ssmlWriter, StringBuilder output) {
+        return this.splitter.appendChunks(content, ssmlWriter, output);
+    }
 
-            final String chunkFilePath = StringUtil.removeFileExtension(outputFilePath) + " chunk " + (i+1) + ".mp3";
-            final File chunkFile = new File(chunkFilePath);
-            final String chunkSSML = chunks.get(i);
+    private void synthesizeWholeFileToStream(SSMLChunk document, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        final int length = document.getSsml().length();
 
-            completedChunkFiles.add(chunkFile);
+        listener.onProgress(new ProgressEvent("Synthesizing audio", 0, length));
+        inner.synthesizeChunkToStream(document, outputFilePath, output, new NullProgressListener());
+        listener.onProgress(new ProgressEvent("Done!", length, length));
+    }
+
+    private void synthesizeChunksToStream(List<SSMLChunk> chunks, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        // Chunks still go to disk first so that an interrupted file can pick up where it left off.
+        final ChunkJournal journal = openJournal(outputFilePath);
+        final List<File> chunkFiles = synthesizeChunks(journal, chunks, outputFilePath, listener);
+        final long maxProgress = getMaxProgress(chunks);
+
+        final String mergeMessage = String.format("Merging %d chunks", chunks.size());
+        listener.onProgress(new ProgressEvent(mergeMessage, maxProgress, maxProgress));
+
+        merger.mergeAudioFiles(chunkFiles, output);
+
+        listener.onProgress(new ProgressEvent("Done!", maxProgress, maxProgress));
+        deleteChunkFiles(journal, chunkFiles);
+    }
 
-            if (chunkFile.exists() && chunkFile.length() > 0) {
-                continue;
+    // Synthesizes every chunk which the journal doesn't already have, and returns the chunk files in merge order.
+    // Chunk files are named by a hash of their SSML, so a chunk survives changes to the chunks around it.
+    private List<File> synthesizeChunks(ChunkJournal journal, List<SSMLChunk> chunks, String outputFilePath, ProgressListener listener) throws SpeechSynthesisException {
+        final long maxProgress = getMaxProgress(chunks);
+        final AtomicLong currentProgress = new AtomicLong();
+        final AtomicInteger completedChunks = new AtomicInteger();
+        final CompletionService<Void> completionService = new ExecutorCompletionService<>(this.chunkExecutor);
+
+        // The same SSML can show up more than once, e.g. a repeated section break. It is only synthesized once.
+        final Map<String, SSMLChunk> chunksByHash = new LinkedHashMap<>();
+        final Map<String, Long> progressByHash = new HashMap<>();
+        final List<File> chunkFiles = new ArrayList<>();
+
+        for (SSMLChunk chunk : chunks) {
+            final String hash = SynthesisCache.getKey(chunk.getSsml(), inner.getOutputFormat());
+
+            chunksByHash.putIfAbsent(hash, chunk);
+            progressByHash.merge(hash, (long)chunk.getSsml().length(), Long::sum);
+
+            // Chunk files are merged in this order, no matter which order they finish in.
+            chunkFiles.add(getChunkFile(outputFilePath, hash));
+        }
+
+        final List<String> chunksToSynthesize = new ArrayList<>();
+
+        try {
+            removeOrphanedChunks(journal, chunksByHash.keySet(), outputFilePath);
+
+            for (String hash : chunksByHash.keySet()) {
+                if (journal.isDone(hash, getChunkFile(outputFilePath, hash))) {
+                    currentProgress.addAndGet(progressByHash.get(hash));
+                    completedChunks.incrementAndGet();
+                } else {
+                    chunksToSynthesize.add(hash);
+                }
             }
+        } catch (IOException e) {
+            throw journalError(outputFilePath, e);
+        }
+
+        final String progressMessage = String.format("Synthesizing %d of %d parts", chunksToSynthesize.size(), chunksByHash.size());
+        listener.onProgress(new ProgressEvent(progressMessage, currentProgress.get(), maxProgress));
+
+        final List<Future<Void>> pendingChunks = new ArrayList<>();
+
+        for (String hash : chunksToSynthesize) {
+            final SSMLChunk chunk = chunksByHash.get(hash);
 
-            inner.synthesizeSsmlToFile(chunkSSML, chunkFilePath);
-            currentProgress += chunkSSML.length();
+            pendingChunks.add(completionService.submit(() -> {
+                synthesizeChunk(journal, hash, chunk, outputFilePath);
+
+                final long progress = currentProgress.addAndGet(progressByHash.get(hash));
+                final String chunkMessage = String.format("Synthesized part %d of %d", completedChunks.incrementAndGet(), chunksByHash.size());
+                reportProgress(listener, new ProgressEvent(chunkMessage, progress, maxProgress));
+                return null;
+            }));
         }
 
-        // Merge all the synthesized chunks into one final audio file.
-        final String progressMessage = String.format("Merging %d chunks", chunks.size());
-        listener.onProgress(new ProgressEvent(progressMessage, maxProgress, maxProgress));
+        awaitChunks(completionService, pendingChunks);
+        return chunkFiles;
+    }
 
-        final File mergedAudioFile = new File(outputFilePath);
-        merger.mergeAudioFiles(completedChunkFiles, mergedAudioFile);
+    // Writes the chunk to a temporary file and renames it into place, so the chunk file is either complete or missing.
+    private void synthesizeChunk(ChunkJournal journal, String hash, SSMLChunk chunk, String outputFilePath) throws SpeechSynthesisException {
+        final File chunkFile = getChunkFile(outputFilePath, hash);
+        final File partialFile = new File(StringUtil.removeFileExtension(chunkFile.getPath()) + " partial.mp3");
 
-        // Delete the temporary audio chunks.
-        listener.onProgress(new ProgressEvent("Done!", maxProgress, maxProgress));
+        try {
+            journal.markPending(hash);
+            inner.synthesizeChunkToFile(chunk, partialFile.getAbsolutePath());
+            moveAtomically(partialFile, chunkFile);
+            journal.markDone(hash, chunkFile);
+        } catch (IOException e) {
+            throw journalError(outputFilePath, e);
+        } finally {
+            partialFile.delete();
+        }
+    }
+
+    // Deletes chunks left over from an earlier run which are no longer part of the file, e.g. because the text or the
+    // chunk size changed. The journal lists them, so there's no need to scan the directory.
+    private static void removeOrphanedChunks(ChunkJournal journal, Set<String> currentHashes, String outputFilePath) throws IOException {
+        for (String hash : journal.getHashes()) {
+            if (!currentHashes.contains(hash)) {
+                getChunkFile(outputFilePath, hash).delete();
+            }
+        }
+
+        journal.retainOnly(currentHashes);
+    }
+
+    private static ChunkJournal openJournal(String outputFilePath) throws SpeechSynthesisException {
+        final File journalFile = getJournalFile(outputFilePath);
+
+        try {
+            return ChunkJournal.open(journalFile);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to read chunk journal " + journalFile.getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static SpeechSynthesisException journalError(String outputFilePath, IOException e) {
+        return new SpeechSynthesisException("Unable to update chunk journal " + getJournalFile(outputFilePath).getPath() + ": " + e.getMessage(), e);
+    }
 
-        for (final File chunkFile : completedChunkFiles) {
+    // SSML which didn't come from content wasn't counted as it was written. The synthesizers below count it if they
+    // need to.
+    private List<SSMLChunk> splitSSML(String ssml) {
+        return this.splitter.splitSSML(ssml).stream().map(SSMLChunk::uncounted).collect(Collectors.toList());
+    }
+
+    private static long getMaxProgress(List<SSMLChunk> chunks) {
+        return chunks.stream().collect(Collectors.summingLong(x -> x.getSsml().length()));
+    }
+
+    // Chunk files can appear more than once in the merge order, but only need deleting once.
+    private static void deleteChunkFiles(ChunkJournal journal, List<File> chunkFiles) {
+        for (final File chunkFile : new LinkedHashSet<>(chunkFiles)) {
             chunkFile.delete();
         }
+
+        journal.delete();
+    }
+
+    private static File getChunkFile(String outputFilePath, String hash) {
+        return new File(StringUtil.removeFileExtension(outputFilePath) + " chunk " + hash.substring(0, CHUNK_FILE_HASH_LENGTH) + ".mp3");
+    }
+
+    private static File getJournalFile(String outputFilePath) {
+        return new File(StringUtil.removeFileExtension(outputFilePath) + " journal.txt");
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void awaitChunks(CompletionService<Void> completionService, List<Future<Void>> pendingChunks) throws SpeechSynthesisException {
+        int finishedChunks = 0;
+
+        try {
+            while (finishedChunks < pendingChunks.size()) {
+                final Future<Void> chunk = completionService.take();
+                finishedChunks++;
+                chunk.get();
+            }
+        } catch (ExecutionException e) {
+            // Chunks which were sent before the budget ran out are already paid for, so let them finish and keep
+            // their audio for the next run. The rest will be refused by the budget straight away.
+            if (e.getCause() instanceof CostBudgetExceededException) {
+                awaitRemainingChunks(completionService, pendingChunks, pendingChunks.size() - finishedChunks);
+                throw (CostBudgetExceededException) e.getCause();
+            }
+
+            // Stop the remaining chunks. Any chunks which already finished stay on disk so the file can be resumed.
+            pendingChunks.forEach(x -> x.cancel(true));
+
+            if (e.getCause() instanceof SpeechSynthesisException) {
+                throw (SpeechSynthesisException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new SpeechSynthesisException("Unexpected error while synthesizing audio chunk: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            pendingChunks.forEach(x -> x.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SpeechSynthesisException("Interrupted while waiting for audio chunks to finish.", e);
+        }
+    }
+
+    // Waits for the chunks which haven't finished yet, ignoring their errors.
+    private static void awaitRemainingChunks(CompletionService<Void> completionService, List<Future<Void>> pendingChunks, int remainingChunks) throws SpeechSynthesisException {
+        try {
+            for (int i = 0; i < remainingChunks; i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    // The first error is the one that gets reported.
+                }
+            }
+        } catch (InterruptedException e) {
+            pendingChunks.forEach(x -> x.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SpeechSynthesisException("Interrupted while waiting for audio chunks to finish.", e);
+        }
+    }
+
+    private static void reportProgress(ProgressListener listener, ProgressEvent event) {
+        // Chunks finish on worker threads, so serialize the events the listener sees.
+        synchronized (listener) {
+            listener.onProgress(event);
+        }
     }
 }
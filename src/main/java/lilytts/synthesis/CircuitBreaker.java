@@ -0,0 +1,155 @@
+package lilytts.synthesis;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Stops sending requests to a connection which keeps failing. While closed, requests flow normally and the outcomes
+// of the most recent ones are tracked. Once too many of them fail, the breaker opens and the connection gets no
+// requests for a while. After that it goes half-open and lets a single probe request through: if the probe succeeds
+// the breaker closes again, otherwise it opens for another round.
+public class CircuitBreaker {
+    public enum State {
+        Closed,
+        Open,
+        HalfOpen
+    }
+
+    private static final long DEFAULT_OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_REQUESTS = 5;
+    private static final double FAILURE_RATIO_THRESHOLD = 0.5;
+
+    private final LongSupplier clock;
+    private final long openNanos;
+    private final ArrayDeque<Boolean> recentOutcomes = new ArrayDeque<>();
+    private int recentFailures = 0;
+    private State state = State.Closed;
+    private long openEndNanos;
+    private boolean probeInFlight = false;
+
+    public CircuitBreaker() {
+        this(System::nanoTime, DEFAULT_OPEN_NANOS);
+    }
+
+    public CircuitBreaker(LongSupplier clock, long openNanos) {
+        this.clock = clock;
+        this.openNanos = openNanos;
+    }
+
+    public synchronized State getState() {
+        updateState(clock.getAsLong());
+        return state;
+    }
+
+    // Returns 0 if a request could be sent right now, -1 if a probe request is already in flight and the caller has
+    // to wait for its outcome, or otherwise how long until the breaker lets a probe through.
+    public synchronized long getDelayNanos() {
+        final long now = clock.getAsLong();
+        updateState(now);
+
+        switch (state) {
+            case Open:
+                return openEndNanos - now;
+            case HalfOpen:
+                return probeInFlight ? -1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    // Call when a request is about to be sent. In the half-open state this request becomes the probe.
+    public synchronized void onRequestStarted() {
+        updateState(clock.getAsLong());
+
+        if (state == State.HalfOpen) {
+            probeInFlight = true;
+        }
+    }
+
+    // Returns true if this success closed the breaker.
+    public synchronized boolean onSuccess() {
+        updateState(clock.getAsLong());
+
+        if (state == State.HalfOpen) {
+            state = State.Closed;
+            probeInFlight = false;
+            recentOutcomes.clear();
+            recentFailures = 0;
+            return true;
+        }
+
+        if (state == State.Closed) {
+            recordOutcome(false);
+        }
+
+        return false;
+    }
+
+    // Returns true if this failure opened the breaker.
+    public synchronized boolean onFailure() {
+        final long now = clock.getAsLong();
+        updateState(now);
+
+        if (state == State.HalfOpen) {
+            open(now);
+            return true;
+        }
+
+        if (state == State.Open) {
+            return false;
+        }
+
+        recordOutcome(true);
+
+        if (recentOutcomes.size() >= MIN_REQUESTS && (double) recentFailures / recentOutcomes.size() >= FAILURE_RATIO_THRESHOLD) {
+            open(now);
+            return true;
+        }
+
+        return false;
+    }
+
+    // Call when a request ends without an outcome, e.g. because it was cancelled, so a probe can be sent again.
+    public synchronized void onRequestAbandoned() {
+        if (state == State.HalfOpen) {
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized int getRecentFailures() {
+        return recentFailures;
+    }
+
+    public synchronized int getRecentRequests() {
+        return recentOutcomes.size();
+    }
+
+    public long getOpenNanos() {
+        return openNanos;
+    }
+
+    private void open(long now) {
+        state = State.Open;
+        openEndNanos = now + openNanos;
+        probeInFlight = false;
+    }
+
+    private void updateState(long now) {
+        if (state == State.Open && now - openEndNanos >= 0) {
+            state = State.HalfOpen;
+        }
+    }
+
+    private void recordOutcome(boolean failed) {
+        recentOutcomes.addLast(failed);
+
+        if (failed) {
+            recentFailures++;
+        }
+
+        if (recentOutcomes.size() > WINDOW_SIZE && recentOutcomes.removeFirst()) {
+            recentFailures--;
+        }
+    }
+}
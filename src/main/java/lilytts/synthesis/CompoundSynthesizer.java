@@ -1,49 +1,737 @@
 package lilytts.synthesis;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
+import lilytts.StringUtil;
+import lilytts.concurrent.DaemonThreadFactory;
+import lilytts.progress.ProgressListener;
+import lilytts.ssml.SSMLChunk;
+
 public class CompoundSynthesizer implements SpeechSynthesizer {
+    // How many times one request can be throttled before giving up on it.
+    private static final int MAX_THROTTLED_ATTEMPTS = 10;
+
+    // How many recent request latencies to base the hedging delay on, and how many are needed before hedging starts.
+    // Both are per size of request.
+    private static final int LATENCY_WINDOW_SIZE = 200;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
     public static CompoundSynthesizer tryInPriorityOrder(List<? extends SpeechSynthesizer> synthesizers) {
-        return new CompoundSynthesizer(synthesizers);
+        if (synthesizers == null) {
+            throw new IllegalArgumentException("speechSynthesizers must not be null or empty");
+        }
+
+        return new CompoundSynthesizer(synthesizers.stream().map(x -> new SynthesizerConnection(x)).toList(), false);
+    }
+
+    public static CompoundSynthesizer balanceLoad(List<SynthesizerConnection> connections) {
+        return new CompoundSynthesizer(connections, true);
     }
 
-    private final List<? extends SpeechSynthesizer> speechSynthesizers;
-    private int currentSynthesizerIndex = 0;
+    private final List<SynthesizerConnection> connections;
+    private final boolean balanceLoad;
+    private final Object lock = new Object();
 
-    private CompoundSynthesizer(List<? extends SpeechSynthesizer> speechSynthesizers) {
-        if (speechSynthesizers == null || speechSynthesizers.isEmpty()) {
+    // Latencies are kept apart for requests of different sizes, since a whole file takes far longer than a chunk of it.
+    private final ConcurrentMap<Integer, LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hedgedRequestCount = new AtomicLong();
+    private ExecutorService hedgeExecutor = null;
+    private double hedgeLatencyPercentile;
+    private double maxHedgedRequestRatio;
+    private CostBudget hedgeBudget = null;
+    private CostEstimator hedgeCostEstimator = null;
+
+    CompoundSynthesizer(List<SynthesizerConnection> connections, boolean balanceLoad) {
+        if (connections == null || connections.isEmpty()) {
             throw new IllegalArgumentException("speechSynthesizers must not be null or empty");
         }
 
-        this.speechSynthesizers = speechSynthesizers;
+        this.connections = connections;
+        this.balanceLoad = balanceLoad;
     }
 
     public String getDisplayName() {
-        return this.speechSynthesizers.stream().map(x -> x.getDisplayName()).collect(Collectors.joining(", "));
+        return this.connections.stream().map(x -> x.getDisplayName()).collect(Collectors.joining(", "));
+    }
+
+    // Connections with different formats produce audio that can't be swapped for either one alone.
+    @Override
+    public String getOutputFormat() {
+        return this.connections.stream().map(x -> x.getSynthesizer().getOutputFormat()).distinct().collect(Collectors.joining("+"));
+    }
+
+    @Override
+    public List<ConnectionStatus> getConnectionStatus() {
+        synchronized (lock) {
+            return this.connections.stream().map(x -> x.getStatus()).toList();
+        }
+    }
+
+    @Override
+    public void warmUp() {
+        this.connections.forEach(x -> x.getSynthesizer().warmUp());
+    }
+
+    // Once a request has run longer than the given percentile of recent requests, sends a copy of it to another
+    // connection and keeps whichever finishes first. At most maxHedgedRequestRatio of requests are copied, which caps
+    // the extra cost.
+    public void enableHedging(double latencyPercentile, double maxHedgedRequestRatio) {
+        if (latencyPercentile <= 0 || latencyPercentile >= 100) {
+            throw new IllegalArgumentException("latencyPercentile must be between 0 and 100: " + latencyPercentile);
+        }
+
+        if (maxHedgedRequestRatio <= 0 || maxHedgedRequestRatio > 1) {
+            throw new IllegalArgumentException("maxHedgedRequestRatio must be above 0 and at most 1: " + maxHedgedRequestRatio);
+        }
+
+        this.hedgeLatencyPercentile = latencyPercentile;
+        this.maxHedgedRequestRatio = maxHedgedRequestRatio;
+
+        if (this.hedgeExecutor == null) {
+            this.hedgeExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("lilytts-hedge"));
+        }
+    }
+
+    // Charges hedged copies of requests against the budget, and doesn't send a copy the budget can't cover. The first
+    // attempt at each request is charged by the BudgetedSpeechSynthesizer in front of this one.
+    public void setCostBudget(CostBudget costBudget, CostEstimator costEstimator) {
+        this.hedgeBudget = costBudget;
+        this.hedgeCostEstimator = costEstimator;
+    }
+
+    @Override
+    public void close() {
+        if (this.hedgeExecutor != null) {
+            this.hedgeExecutor.shutdownNow();
+        }
+
+        // Close every connection even if some of them fail to close, and report all of the failures.
+        RuntimeException closeFailure = null;
+
+        for (SynthesizerConnection connection : this.connections) {
+            try {
+                connection.getSynthesizer().close();
+            } catch (RuntimeException e) {
+                if (closeFailure == null) {
+                    closeFailure = e;
+                } else {
+                    closeFailure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+
+    // Where one attempt at a request writes its audio. Hedged attempts each get their own, so the audio of an attempt
+    // which failed or lost the race never reaches the caller.
+    private interface AttemptOutput {
+        void synthesize(SpeechSynthesizer synthesizer) throws SpeechSynthesisException;
+
+        // Hands the audio of the attempt that succeeded to the caller.
+        void keep() throws SpeechSynthesisException;
+
+        void discard();
+    }
+
+    @FunctionalInterface
+    private interface AttemptOutputFactory {
+        // Attempt 0 is the only attempt of a request which isn't hedged.
+        AttemptOutput create(int attemptNumber);
+    }
+
+    // A request which isn't hedged writes straight to the output file. Hedged attempts write to files of their own,
+    // and the winner is moved into place.
+    private static class FileAttemptOutput implements AttemptOutput {
+        private final String ssml;
+        private final String filePath;
+        private final File attemptFile;
+        private final boolean inPlace;
+
+        FileAttemptOutput(String ssml, String filePath, int attemptNumber) {
+            this.ssml = ssml;
+            this.filePath = filePath;
+            this.inPlace = attemptNumber == 0;
+            this.attemptFile = this.inPlace ? new File(filePath) : getAttemptFile(filePath, attemptNumber);
+        }
+
+        @Override
+        public void synthesize(SpeechSynthesizer synthesizer) throws SpeechSynthesisException {
+            synthesizer.synthesizeSsmlToFile(ssml, attemptFile.getAbsolutePath());
+        }
+
+        @Override
+        public void keep() throws SpeechSynthesisException {
+            if (!inPlace) {
+                moveAttemptFile(attemptFile, filePath);
+            }
+        }
+
+        @Override
+        public void discard() {
+            attemptFile.delete();
+        }
+    }
+
+    // Collects the audio in memory, so nothing reaches the caller's stream until an attempt has succeeded. A failed
+    // try may have written part of its audio, so every try starts from an empty buffer.
+    private static class StreamAttemptOutput implements AttemptOutput {
+        private final String ssml;
+        private final String outputFilePath;
+        private final OutputStream output;
+        private final ProgressListener listener;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        StreamAttemptOutput(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) {
+            this.ssml = ssml;
+            this.outputFilePath = outputFilePath;
+            this.output = output;
+            this.listener = listener;
+        }
+
+        @Override
+        public void synthesize(SpeechSynthesizer synthesizer) throws SpeechSynthesisException {
+            buffer.reset();
+            synthesizer.synthesizeSsmlToStream(ssml, outputFilePath, buffer, listener);
+        }
+
+        @Override
+        public void keep() throws SpeechSynthesisException {
+            try {
+                buffer.writeTo(output);
+            } catch (IOException e) {
+                throw new SpeechSynthesisException("Unable to write synthesized audio to " + outputFilePath + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void discard() {
+            // The buffer goes away with the attempt.
+        }
     }
 
     public void synthesizeSsmlToFile(String ssml, String filePath) throws SpeechSynthesisException {
-        while (true) {
-            if (this.speechSynthesizers.size() <= currentSynthesizerIndex) {
-                throw new IllegalStateException("Ran out of speech synthesizers to try.");
+        synthesizeChunkToFile(SSMLChunk.uncounted(ssml), filePath);
+    }
+
+    // Goes through the same retries, failover and hedging as synthesizeSsmlToFile, without an intermediate file. Only
+    // the audio of the attempt that succeeds is written to the stream.
+    @Override
+    public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        synthesizeChunkToStream(SSMLChunk.uncounted(ssml), outputFilePath, output, listener);
+    }
+
+    // The chunk's billable characters are only needed to charge hedged copies against the budget.
+    @Override
+    public void synthesizeChunkToFile(SSMLChunk chunk, String filePath) throws SpeechSynthesisException {
+        synthesize(chunk, attemptNumber -> new FileAttemptOutput(chunk.getSsml(), filePath, attemptNumber));
+    }
+
+    @Override
+    public void synthesizeChunkToStream(SSMLChunk chunk, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        synthesize(chunk, attemptNumber -> new StreamAttemptOutput(chunk.getSsml(), outputFilePath, output, listener));
+    }
+
+    private void synthesize(SSMLChunk chunk, AttemptOutputFactory outputs) throws SpeechSynthesisException {
+        final LatencyTracker latencyTracker = getLatencyTracker(chunk);
+
+        // Hedging needs a second connection to send the copy to.
+        if (this.hedgeExecutor == null || this.connections.size() < 2) {
+            synthesizeWithoutHedging(outputs, latencyTracker);
+            return;
+        }
+
+        synthesizeWithHedging(chunk, outputs, latencyTracker);
+    }
+
+    // Requests within a factor of two of each other in length share a tracker.
+    private LatencyTracker getLatencyTracker(SSMLChunk chunk) {
+        final int sizeBucket = Integer.SIZE - Integer.numberOfLeadingZeros(chunk.getSsml().length());
+        return latencyTrackers.computeIfAbsent(sizeBucket, x -> new LatencyTracker(LATENCY_WINDOW_SIZE, MIN_LATENCY_SAMPLES));
+    }
+
+    private void synthesizeWithoutHedging(AttemptOutputFactory outputs, LatencyTracker latencyTracker) throws SpeechSynthesisException {
+        final AttemptOutput output = outputs.create(0);
+        synthesizeWithRetries(output, null, latencyTracker);
+        output.keep();
+    }
+
+    private void synthesizeWithHedging(SSMLChunk chunk, AttemptOutputFactory outputs, LatencyTracker latencyTracker) throws SpeechSynthesisException {
+        requestCount.incrementAndGet();
+
+        final long hedgeDelayNanos = latencyTracker.getPercentileNanos(hedgeLatencyPercentile);
+
+        if (hedgeDelayNanos < 0) {
+            synthesizeWithoutHedging(outputs, latencyTracker);
+            return;
+        }
+
+        // Each attempt writes to its own output. The first one to finish claims the result, and the others discard
+        // their audio whenever they stop.
+        final AtomicReference<AttemptOutput> winningOutput = new AtomicReference<>();
+        final AtomicReference<SynthesizerConnection> primaryConnection = new AtomicReference<>();
+        final CompletionService<AttemptOutput> completionService = new ExecutorCompletionService<>(this.hedgeExecutor);
+        final List<Future<AttemptOutput>> attempts = new ArrayList<>();
+
+        // The hedge holds a connection and part of the budget from the moment it's picked. Whichever of the hedge's
+        // task or this thread claims it first is responsible for giving them back, so they aren't lost if the task is
+        // cancelled before it starts.
+        final AtomicBoolean hedgeClaimed = new AtomicBoolean();
+        SynthesizerConnection hedgeConnection = null;
+        double hedgeCost = 0;
+
+        final AttemptOutput primaryOutput = outputs.create(1);
+        attempts.add(completionService.submit(() -> {
+            return runAttempt(primaryOutput, winningOutput, () -> synthesizeWithRetries(primaryOutput, primaryConnection, latencyTracker));
+        }));
+
+        try {
+            Future<AttemptOutput> finishedAttempt = completionService.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+
+            if (finishedAttempt == null) {
+                hedgeCost = this.hedgeBudget != null ? getCost(chunk) : 0;
+                hedgeConnection = tryStartHedgedRequest(primaryConnection.get(), hedgeCost);
+
+                if (hedgeConnection != null) {
+                    final SynthesizerConnection connection = hedgeConnection;
+                    final double cost = hedgeCost;
+                    final AttemptOutput hedgeOutput = outputs.create(2);
+
+                    attempts.add(completionService.submit(() -> {
+                        if (!hedgeClaimed.compareAndSet(false, true)) {
+                            return null;
+                        }
+
+                        return runAttempt(hedgeOutput, winningOutput, () -> synthesizeHedge(connection, hedgeOutput, cost, latencyTracker));
+                    }));
+                }
+
+                finishedAttempt = completionService.take();
+            }
+
+            Throwable firstFailure = null;
+
+            for (int remainingAttempts = attempts.size() - 1; ; remainingAttempts--) {
+                try {
+                    final AttemptOutput result = finishedAttempt.get();
+
+                    if (result != null) {
+                        // Stop the slower attempt; we already have the audio.
+                        attempts.forEach(x -> x.cancel(true));
+                        result.keep();
+                        return;
+                    }
+                } catch (ExecutionException e) {
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause();
+                    }
+                }
+
+                if (remainingAttempts == 0) {
+                    throw asSpeechSynthesisException(firstFailure);
+                }
+
+                finishedAttempt = completionService.take();
+            }
+        } catch (InterruptedException e) {
+            attempts.forEach(x -> x.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new SpeechSynthesisException("Interrupted while waiting for speech synthesis to finish.", e);
+        } finally {
+            if (hedgeConnection != null && hedgeClaimed.compareAndSet(false, true)) {
+                abandonHedge(hedgeConnection, hedgeCost);
+            }
+        }
+    }
+
+    // Sends a hedged copy of a request and settles its share of the budget. A copy which was stopped because the
+    // other attempt won may already have been billed, so only one the service failed gets its cost back.
+    private void synthesizeHedge(SynthesizerConnection connection, AttemptOutput output, double cost, LatencyTracker latencyTracker) throws SpeechSynthesisException {
+        try {
+            synthesizeOnce(connection, output, latencyTracker);
+        } catch (SpeechSynthesisException | RuntimeException e) {
+            if (this.hedgeBudget != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    this.hedgeBudget.commit(cost);
+                } else {
+                    this.hedgeBudget.release(cost);
+                }
             }
 
-            final SpeechSynthesizer currentSynthesizer = this.speechSynthesizers.get(currentSynthesizerIndex);
+            throw e;
+        }
+
+        if (this.hedgeBudget != null) {
+            this.hedgeBudget.commit(cost);
+        }
+    }
+
+    private double getCost(SSMLChunk chunk) {
+        return chunk.isCounted()
+            ? this.hedgeCostEstimator.getCostForCharacters(chunk.getBillableCharacters())
+            : this.hedgeCostEstimator.getEstimatedCost(chunk.getSsml());
+    }
+
+    // Gives back what a hedge was holding when it was cancelled before it was sent.
+    private void abandonHedge(SynthesizerConnection connection, double cost) {
+        synchronized (lock) {
+            connection.getCircuitBreaker().onRequestAbandoned();
+        }
+
+        releaseConnection(connection);
+
+        if (this.hedgeBudget != null) {
+            this.hedgeBudget.release(cost);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Attempt {
+        void run() throws SpeechSynthesisException;
+    }
+
+    // Returns the attempt's output if it finished first, or null if another attempt beat it.
+    private static AttemptOutput runAttempt(AttemptOutput attemptOutput, AtomicReference<AttemptOutput> winningOutput, Attempt attempt) throws SpeechSynthesisException {
+        try {
+            attempt.run();
+        } catch (SpeechSynthesisException | RuntimeException e) {
+            attemptOutput.discard();
+            throw e;
+        }
+
+        if (winningOutput.compareAndSet(null, attemptOutput)) {
+            return attemptOutput;
+        }
+
+        attemptOutput.discard();
+        return null;
+    }
+
+    private static File getAttemptFile(String filePath, int attemptNumber) {
+        return new File(StringUtil.removeFileExtension(filePath) + " attempt " + attemptNumber + ".mp3");
+    }
+
+    private static void moveAttemptFile(File attemptFile, String filePath) throws SpeechSynthesisException {
+        try {
+            Files.move(attemptFile.toPath(), new File(filePath).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to move synthesized audio to " + filePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static SpeechSynthesisException asSpeechSynthesisException(Throwable error) {
+        if (error instanceof SpeechSynthesisException) {
+            return (SpeechSynthesisException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+
+        return new SpeechSynthesisException("Unexpected error during speech synthesis: " + error.getMessage(), error);
+    }
+
+    // Picks a connection for a hedged copy of a request, or returns null if the hedging ratio or the cost budget is
+    // used up, or no other connection can take a request right now. Hedged requests never wait for a connection.
+    private SynthesizerConnection tryStartHedgedRequest(SynthesizerConnection primaryConnection, double cost) {
+        synchronized (lock) {
+            if (hedgedRequestCount.get() + 1 > maxHedgedRequestRatio * requestCount.get()) {
+                return null;
+            }
+
+            SynthesizerConnection result = null;
+
+            for (SynthesizerConnection connection : connections) {
+                if (connection == primaryConnection
+                        || !connection.isHealthy()
+                        || !connection.hasCapacity()
+                        || connection.getDelayNanos() != 0) {
+                    continue;
+                }
+
+                if (result == null || connection.getLoad() < result.getLoad()) {
+                    result = connection;
+                }
+            }
+
+            if (result == null || (hedgeBudget != null && !hedgeBudget.reserve(cost))) {
+                return null;
+            }
+
+            result.startRequest();
+            hedgedRequestCount.incrementAndGet();
+            return result;
+        }
+    }
+
+    private void synthesizeOnce(SynthesizerConnection connection, AttemptOutput output, LatencyTracker latencyTracker) throws SpeechSynthesisException {
+        try {
+            final long startTime = System.nanoTime();
+            output.synthesize(connection.getSynthesizer());
+            latencyTracker.record(System.nanoTime() - startTime);
+            onSucceeded(connection);
+        } catch (SpeechSynthesisThrottledException exception) {
+            onThrottled(connection);
+            throw exception;
+        } catch (SpeechSynthesisRequestException exception) {
+            onRejected(connection);
+            throw exception;
+        } catch (SpeechSynthesisException exception) {
+            onFailed(connection);
+            throw exception;
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    // Sends the request to the best connection available, trying again whenever it is throttled. Errors in the request
+    // itself are thrown right away. Other errors move the request on to a connection it hasn't tried yet; once every
+    // connection has failed it, the error is thrown.
+    // If currentConnection is given, it is updated with the connection the request is running on.
+    private void synthesizeWithRetries(AttemptOutput output, AtomicReference<SynthesizerConnection> currentConnection, LatencyTracker latencyTracker) throws SpeechSynthesisException {
+        final Set<SynthesizerConnection> failedConnections = new HashSet<>();
+        int throttledAttempts = 0;
+
+        while (true) {
+            final SynthesizerConnection connection = acquireConnection(failedConnections);
+
+            if (currentConnection != null) {
+                currentConnection.set(connection);
+            }
 
             try {
-                currentSynthesizer.synthesizeSsmlToFile(ssml, filePath);
+                final long startTime = System.nanoTime();
+                output.synthesize(connection.getSynthesizer());
+                latencyTracker.record(System.nanoTime() - startTime);
+                onSucceeded(connection);
                 return;
             } catch (SpeechSynthesisThrottledException exception) {
-                this.currentSynthesizerIndex++;
+                throttledAttempts++;
+                onThrottled(connection);
 
-                if (this.speechSynthesizers.size() <= currentSynthesizerIndex) {
+                if (throttledAttempts >= MAX_THROTTLED_ATTEMPTS) {
                     throw exception;
-                } else {
-                    final SpeechSynthesizer nexSynthesizer = this.speechSynthesizers.get(currentSynthesizerIndex);
-                    System.out.println("Speech synthesis request was throttled on " + currentSynthesizer.getDisplayName() + ". Switching to " + nexSynthesizer.getDisplayName() + ".");
                 }
+            } catch (SpeechSynthesisRequestException exception) {
+                // Every connection would reject the request the same way, so fail it without trying the others.
+                onRejected(connection);
+                throw exception;
+            } catch (SpeechSynthesisException exception) {
+                onFailed(connection);
+
+                // A cancelled request says nothing about the connection, so don't go looking for another one.
+                if (Thread.currentThread().isInterrupted()) {
+                    throw exception;
+                }
+
+                failedConnections.add(connection);
+
+                if (failedConnections.size() >= connections.size()) {
+                    throw exception;
+                }
+            } finally {
+                releaseConnection(connection);
+            }
+        }
+    }
+
+    private SynthesizerConnection acquireConnection(Set<SynthesizerConnection> excludedConnections) throws SpeechSynthesisException {
+        synchronized (lock) {
+            while (true) {
+                final SynthesizerConnection connection = balanceLoad
+                    ? findLeastLoadedConnection(excludedConnections)
+                    : findFirstAvailableConnection(excludedConnections);
+
+                if (connection != null) {
+                    connection.startRequest();
+                    return connection;
+                }
+
+                try {
+                    // Wait for a request to finish or for a connection's rate limit or circuit breaker to allow another request.
+                    final long delayNanos = getDelayUntilAvailableNanos(excludedConnections);
+
+                    if (delayNanos < 0) {
+                        lock.wait();
+                    } else {
+                        lock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SpeechSynthesisException("Interrupted while waiting for a speech synthesizer to become available.", e);
+                }
+            }
+        }
+    }
+
+    // Uses the first healthy connection: not cooling down after being throttled, and not shut off by its circuit
+    // breaker. While that connection's rate limit holds requests back, the next healthy connection that can take one
+    // right away gets it instead. If a connection is only at its concurrent request limit, the caller waits for one
+    // of its requests to finish rather than moving on to a lower priority connection.
+    private SynthesizerConnection findFirstAvailableConnection(Set<SynthesizerConnection> excludedConnections) {
+        for (SynthesizerConnection connection : connections) {
+            if (excludedConnections.contains(connection) || !connection.isHealthy()) {
+                continue;
+            }
+
+            if (!connection.hasCapacity()) {
+                return null;
+            }
+
+            if (connection.getDelayNanos() == 0) {
+                return connection;
+            }
+        }
+
+        return null;
+    }
+
+    private SynthesizerConnection findLeastLoadedConnection(Set<SynthesizerConnection> excludedConnections) {
+        SynthesizerConnection result = null;
+
+        for (SynthesizerConnection connection : connections) {
+            if (excludedConnections.contains(connection) || !connection.hasCapacity() || connection.getDelayNanos() != 0) {
+                continue;
+            }
+
+            if (result == null
+                    || connection.getLoad() < result.getLoad()
+                    || (connection.getLoad() == result.getLoad() && connection.getUsage() < result.getUsage())) {
+                result = connection;
+            }
+        }
+
+        return result;
+    }
+
+    // Returns how long until a connection's rate limit, cooldown or circuit breaker allows another request, or -1 if
+    // we have to wait for a request to finish: every usable connection is at its concurrent request limit or waiting
+    // on a probe request.
+    private long getDelayUntilAvailableNanos(Set<SynthesizerConnection> excludedConnections) {
+        if (!balanceLoad && connections.stream().anyMatch(x -> !excludedConnections.contains(x) && x.isHealthy())) {
+            // The same connections findFirstAvailableConnection would consider: healthy ones, up to the first one at
+            // its concurrent request limit.
+            long delayNanos = -1;
+
+            for (SynthesizerConnection connection : connections) {
+                if (excludedConnections.contains(connection) || !connection.isHealthy()) {
+                    continue;
+                }
+
+                if (!connection.hasCapacity()) {
+                    break;
+                }
+
+                final long connectionDelayNanos = connection.getDelayNanos();
+
+                if (connectionDelayNanos >= 0 && (delayNanos < 0 || connectionDelayNanos < delayNanos)) {
+                    delayNanos = connectionDelayNanos;
+                }
+            }
+
+            return delayNanos;
+        }
+
+        return connections.stream()
+            .filter(x -> !excludedConnections.contains(x) && x.hasCapacity())
+            .mapToLong(x -> x.getDelayNanos())
+            .filter(x -> x >= 0)
+            .min()
+            .orElse(-1);
+    }
+
+    private void releaseConnection(SynthesizerConnection connection) {
+        synchronized (lock) {
+            connection.finishRequest();
+            lock.notifyAll();
+        }
+    }
+
+    private void onSucceeded(SynthesizerConnection connection) {
+        connection.getRateLimiter().onSuccess();
+
+        synchronized (lock) {
+            if (connection.getCircuitBreaker().onSuccess()) {
+                lock.notifyAll();
+                System.out.printf("Speech synthesis on %s has recovered. Sending requests to it again.%n", connection.getDisplayName());
+            }
+        }
+    }
+
+    private void onFailed(SynthesizerConnection connection) {
+        synchronized (lock) {
+            final CircuitBreaker circuitBreaker = connection.getCircuitBreaker();
+
+            if (Thread.currentThread().isInterrupted()) {
+                circuitBreaker.onRequestAbandoned();
+                lock.notifyAll();
+                return;
+            }
+
+            // Only report it when the breaker trips, not for every failed request.
+            if (!circuitBreaker.onFailure()) {
+                return;
             }
+
+            lock.notifyAll();
+
+            System.out.printf("Speech synthesis requests are failing on %s. Sending requests elsewhere and checking it again in %d seconds.%n",
+                connection.getDisplayName(),
+                TimeUnit.NANOSECONDS.toSeconds(circuitBreaker.getOpenNanos()));
+        }
+    }
+
+    // The service answered, so the connection works, but the request was bad. That doesn't count against the circuit
+    // breaker, and a rejected probe just frees it up to send another one.
+    private void onRejected(SynthesizerConnection connection) {
+        synchronized (lock) {
+            connection.getCircuitBreaker().onRequestAbandoned();
+            lock.notifyAll();
+        }
+    }
+
+    private void onThrottled(SynthesizerConnection connection) {
+        synchronized (lock) {
+            final AdaptiveRateLimiter rateLimiter = connection.getRateLimiter();
+
+            // Throttling says nothing about whether the connection is healthy, so a throttled probe just frees up the
+            // circuit breaker to send another one.
+            connection.getCircuitBreaker().onRequestAbandoned();
+
+            // Several requests in flight on the same connection may be throttled at once. Only report it once.
+            if (!rateLimiter.onThrottled()) {
+                return;
+            }
+
+            lock.notifyAll();
+
+            System.out.printf("Speech synthesis request was throttled on %s. Pausing it for %d seconds and limiting it to %.2f requests per second.%n",
+                connection.getDisplayName(),
+                TimeUnit.NANOSECONDS.toSeconds(rateLimiter.getCooldownNanos()),
+                rateLimiter.getCurrentRate());
         }
     }
 }
@@ -0,0 +1,38 @@
+package lilytts.synthesis;
+
+public class ConnectionStatus {
+    private final String displayName;
+    private final double requestsPerSecondLimit;
+    private final int requestsInFlight;
+    private final boolean coolingDown;
+    private final CircuitBreaker.State circuitState;
+
+    public ConnectionStatus(String displayName, double requestsPerSecondLimit, int requestsInFlight, boolean coolingDown, CircuitBreaker.State circuitState) {
+        this.displayName = displayName;
+        this.requestsPerSecondLimit = requestsPerSecondLimit;
+        this.requestsInFlight = requestsInFlight;
+        this.coolingDown = coolingDown;
+        this.circuitState = circuitState;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    // Infinite if the connection has never been throttled.
+    public double getRequestsPerSecondLimit() {
+        return requestsPerSecondLimit;
+    }
+
+    public int getRequestsInFlight() {
+        return requestsInFlight;
+    }
+
+    public boolean isCoolingDown() {
+        return coolingDown;
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitState;
+    }
+}
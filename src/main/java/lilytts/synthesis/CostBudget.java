@@ -0,0 +1,49 @@
+package lilytts.synthesis;
+
+// A hard limit on how much a run may spend. A request reserves its estimated cost before it is sent, and the
+// reservation is turned into spend once it succeeds or given back if it fails. Reservations count against the limit,
+// so requests running at the same time can't overshoot it together.
+public class CostBudget {
+    private final double maxCost;
+    private double spentCost = 0;
+    private double reservedCost = 0;
+
+    public CostBudget(double maxCost) {
+        if (maxCost < 0 || Double.isNaN(maxCost)) {
+            throw new IllegalArgumentException("maxCost must not be negative: " + maxCost);
+        }
+
+        this.maxCost = maxCost;
+    }
+
+    public double getMaxCost() {
+        return maxCost;
+    }
+
+    public synchronized double getSpentCost() {
+        return spentCost;
+    }
+
+    public synchronized double getReservedCost() {
+        return reservedCost;
+    }
+
+    // Returns false, reserving nothing, if the cost would take the run over its limit.
+    public synchronized boolean reserve(double cost) {
+        if (spentCost + reservedCost + cost > maxCost) {
+            return false;
+        }
+
+        reservedCost += cost;
+        return true;
+    }
+
+    public synchronized void commit(double cost) {
+        reservedCost = Math.max(0, reservedCost - cost);
+        spentCost += cost;
+    }
+
+    public synchronized void release(double cost) {
+        reservedCost = Math.max(0, reservedCost - cost);
+    }
+}
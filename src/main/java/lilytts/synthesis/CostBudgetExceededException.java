@@ -0,0 +1,20 @@
+package lilytts.synthesis;
+
+public class CostBudgetExceededException extends SpeechSynthesisException {
+
+    public CostBudgetExceededException() {
+    }
+
+    public CostBudgetExceededException(String message) {
+        super(message);
+    }
+
+    public CostBudgetExceededException(Throwable cause) {
+        super(cause);
+    }
+
+    public CostBudgetExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+    
+}
@@ -1,5 +1,12 @@
 package lilytts.synthesis;
 
 public interface CostEstimator {
-    double getEstimatedCost(String ssml);
+    // The number of characters of the SSML that the service charges for.
+    long countBillableCharacters(String ssml);
+
+    double getCostForCharacters(long billableCharacters);
+
+    default double getEstimatedCost(String ssml) {
+        return getCostForCharacters(countBillableCharacters(ssml));
+    }
 }
@@ -0,0 +1,36 @@
+package lilytts.synthesis;
+
+import java.util.Arrays;
+
+// Keeps the latencies of the most recent requests, so percentiles follow the service as it speeds up or slows down.
+class LatencyTracker {
+    private final long[] samples;
+    private final int minSamples;
+    private int nextSample = 0;
+    private int sampleCount = 0;
+
+    LatencyTracker(int windowSize, int minSamples) {
+        this.samples = new long[windowSize];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[nextSample] = latencyNanos;
+        nextSample = (nextSample + 1) % samples.length;
+        sampleCount = Math.min(sampleCount + 1, samples.length);
+    }
+
+    // Returns the latency under which the given percentage of recent requests finished, or -1 until there have been
+    // enough requests to tell.
+    synchronized long getPercentileNanos(double percentile) {
+        if (sampleCount < minSamples) {
+            return -1;
+        }
+
+        final long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+
+        final int rank = (int)Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,218 @@
+package lilytts.synthesis;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import lilytts.progress.ProgressListener;
+
+// Stands in for the speech service without a network connection. Writes silent MP3 audio about as long as the text
+// would take to read, after a random delay, and fails or throttles some of the requests on purpose.
+public class SimulatedSynthesizer implements SpeechSynthesizer {
+    // One MPEG-1 Layer III frame at 192kbps, 48kHz, mono. All zero side info and main data decodes as silence.
+    private static final int FRAME_SIZE_BYTES = 576;
+    private static final double FRAME_DURATION_SECONDS = 1152.0 / 48000.0;
+    private static final byte[] SILENT_FRAME = createSilentFrame();
+
+    private static final Pattern XML_TAG_PATTERN = Pattern.compile("<[^>]*>");
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    public static class Builder {
+        private String displayName = "Simulated speech service";
+        private long medianLatencyMillis = 2000;
+        private double latencySpread = 0.5;
+        private double throttleRate = 0;
+        private double errorRate = 0;
+        private double maxRequestsPerSecond = 0;
+        private double charactersPerSecond = 15;
+        private Random random = new Random();
+
+        public Builder withDisplayName(String displayName) {
+            this.displayName = displayName;
+            return this;
+        }
+
+        // Latency is log-normal: half the requests finish within the median, and the spread sets how long the tail is.
+        public Builder withLatency(long medianLatencyMillis, double latencySpread) {
+            this.medianLatencyMillis = medianLatencyMillis;
+            this.latencySpread = latencySpread;
+            return this;
+        }
+
+        // The fraction of requests which are throttled no matter how busy the service is.
+        public Builder withThrottleRate(double throttleRate) {
+            this.throttleRate = throttleRate;
+            return this;
+        }
+
+        // Requests past this rate are throttled, like a subscription's quota. 0 means no limit.
+        public Builder withMaxRequestsPerSecond(double maxRequestsPerSecond) {
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        public Builder withErrorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        // How quickly the simulated voice reads, which sets how much audio each request produces.
+        public Builder withCharactersPerSecond(double charactersPerSecond) {
+            this.charactersPerSecond = charactersPerSecond;
+            return this;
+        }
+
+        public Builder withSeed(long seed) {
+            this.random = new Random(seed);
+            return this;
+        }
+
+        public SimulatedSynthesizer build() {
+            if (medianLatencyMillis < 0 || latencySpread < 0) {
+                throw new IllegalArgumentException("Latency must not be negative.");
+            }
+
+            if (throttleRate < 0 || throttleRate > 1 || errorRate < 0 || errorRate > 1) {
+                throw new IllegalArgumentException("throttleRate and errorRate must be between 0 and 1.");
+            }
+
+            if (maxRequestsPerSecond < 0) {
+                throw new IllegalArgumentException("maxRequestsPerSecond must not be negative: " + maxRequestsPerSecond);
+            }
+
+            if (charactersPerSecond <= 0) {
+                throw new IllegalArgumentException("charactersPerSecond must be positive: " + charactersPerSecond);
+            }
+
+            return new SimulatedSynthesizer(this);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final String displayName;
+    private final long medianLatencyMillis;
+    private final double latencySpread;
+    private final double throttleRate;
+    private final double errorRate;
+    private final double maxRequestsPerSecond;
+    private final double charactersPerSecond;
+    private final Random random;
+
+    // Start times of the requests in the last second, for the request rate limit.
+    private final Deque<Long> recentRequests = new ArrayDeque<>();
+
+    private SimulatedSynthesizer(Builder builder) {
+        this.displayName = builder.displayName;
+        this.medianLatencyMillis = builder.medianLatencyMillis;
+        this.latencySpread = builder.latencySpread;
+        this.throttleRate = builder.throttleRate;
+        this.errorRate = builder.errorRate;
+        this.maxRequestsPerSecond = builder.maxRequestsPerSecond;
+        this.charactersPerSecond = builder.charactersPerSecond;
+        this.random = builder.random;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    // Kept apart from the real service's format so that silence never ends up in the synthesis cache for real requests.
+    @Override
+    public String getOutputFormat() {
+        return "Simulated48Khz192KBitRateMonoMp3";
+    }
+
+    @Override
+    public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
+        final int frameCount = simulateRequest(ssml, outputFilePath);
+
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFilePath))) {
+            writeSilence(output, frameCount);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to write synthesized audio to " + outputFilePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        final int frameCount = simulateRequest(ssml, outputFilePath);
+
+        try {
+            writeSilence(output, frameCount);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to write synthesized audio to " + outputFilePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Waits like a real request would and decides how it turns out. Returns the number of audio frames to write.
+    private int simulateRequest(String ssml, String filePath) throws SpeechSynthesisException {
+        if (isOverRequestLimit() || random.nextDouble() < throttleRate) {
+            throw new SpeechSynthesisThrottledException("Simulated throttling while converting " + filePath);
+        }
+
+        final double latencyMillis = medianLatencyMillis * Math.exp(latencySpread * random.nextGaussian());
+
+        try {
+            Thread.sleep(Math.round(latencyMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpeechSynthesisException("Interrupted while converting " + filePath, e);
+        }
+
+        if (random.nextDouble() < errorRate) {
+            throw new SpeechSynthesisException("Simulated synthesis failure while converting " + filePath);
+        }
+
+        final int textLength = XML_TAG_PATTERN.matcher(ssml).replaceAll("").strip().length();
+        final double durationSeconds = textLength / charactersPerSecond;
+        return Math.max(1, (int)Math.ceil(durationSeconds / FRAME_DURATION_SECONDS));
+    }
+
+    private boolean isOverRequestLimit() {
+        if (maxRequestsPerSecond <= 0) {
+            return false;
+        }
+
+        final long now = System.nanoTime();
+
+        synchronized (recentRequests) {
+            while (!recentRequests.isEmpty() && now - recentRequests.peekFirst() >= NANOS_PER_SECOND) {
+                recentRequests.removeFirst();
+            }
+
+            if (recentRequests.size() >= maxRequestsPerSecond) {
+                return true;
+            }
+
+            recentRequests.addLast(now);
+            return false;
+        }
+    }
+
+    private static void writeSilence(OutputStream output, int frameCount) throws IOException {
+        for (int i = 0; i < frameCount; i++) {
+            output.write(SILENT_FRAME);
+        }
+    }
+
+    private static byte[] createSilentFrame() {
+        final byte[] frame = new byte[FRAME_SIZE_BYTES];
+
+        // Frame sync, MPEG-1, Layer III, no CRC, 192kbps, 48kHz, no padding, mono.
+        frame[0] = (byte)0xFF;
+        frame[1] = (byte)0xFB;
+        frame[2] = (byte)0xB4;
+        frame[3] = (byte)0xC0;
+
+        return frame;
+    }
+}
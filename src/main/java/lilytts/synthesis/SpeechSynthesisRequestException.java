@@ -0,0 +1,22 @@
+package lilytts.synthesis;
+
+// The request itself was rejected, e.g. for invalid SSML or a voice which doesn't exist. Any other connection would
+// reject it the same way, and it says nothing about the health of the connection.
+public class SpeechSynthesisRequestException extends SpeechSynthesisException {
+
+    public SpeechSynthesisRequestException() {
+    }
+
+    public SpeechSynthesisRequestException(String message) {
+        super(message);
+    }
+
+    public SpeechSynthesisRequestException(Throwable cause) {
+        super(cause);
+    }
+
+    public SpeechSynthesisRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+    
+}
@@ -1,8 +1,18 @@
 package lilytts.synthesis;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import lilytts.StringUtil;
+import lilytts.content.ContentItem;
 import lilytts.progress.ProgressListener;
+import lilytts.ssml.SSMLChunk;
+import lilytts.ssml.SSMLWriter;
 
-public interface SpeechSynthesizer {
+public interface SpeechSynthesizer extends AutoCloseable {
     String getDisplayName();
 
     default void synthesizeSsmlToFile(String ssml, String outputFilePath, ProgressListener listener) throws SpeechSynthesisException {
@@ -10,4 +20,64 @@ public interface SpeechSynthesizer {
     }
 
     void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException;
+
+    // Writes the audio to the given stream instead of a file. outputFilePath is the file the stream is writing to,
+    // and is used to name any intermediate files. Implementations which can't stream go through a temporary file.
+    default void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        final File tempFile = new File(StringUtil.removeFileExtension(outputFilePath) + " audio.mp3");
+
+        synthesizeSsmlToFile(ssml, tempFile.getAbsolutePath(), listener);
+
+        try {
+            Files.copy(tempFile.toPath(), output);
+        } catch (IOException e) {
+            throw new SpeechSynthesisException("Unable to copy synthesized audio from " + tempFile.getPath() + ": " + e.getMessage(), e);
+        }
+
+        tempFile.delete();
+    }
+
+    // Like synthesizeSsmlToFile, for SSML whose billable characters were counted as it was written. Synthesizers which
+    // charge for requests use the count rather than scanning the SSML again.
+    default void synthesizeChunkToFile(SSMLChunk chunk, String outputFilePath) throws SpeechSynthesisException {
+        synthesizeSsmlToFile(chunk.getSsml(), outputFilePath);
+    }
+
+    default void synthesizeChunkToStream(SSMLChunk chunk, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        synthesizeSsmlToStream(chunk.getSsml(), outputFilePath, output, listener);
+    }
+
+    // Writes the content out the way this synthesizer would send it, and returns how many characters the service bills
+    // for. Synthesizers which split the content into chunks count the markup every chunk repeats.
+    default long appendSSML(Iterable<ContentItem> content, SSMLWriter ssmlWriter, StringBuilder output) {
+        return ssmlWriter.appendSSML(content, output);
+    }
+
+    // Synthesizes content which hasn't been written out as SSML yet. Synthesizers which split the SSML into chunks can
+    // go straight from the content to the chunks.
+    default void synthesizeContentToStream(List<ContentItem> content, SSMLWriter ssmlWriter, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+        synthesizeSsmlToStream(ssmlWriter.toSSML(content), outputFilePath, output, listener);
+    }
+
+    // Identifies the audio format this synthesizer produces. Audio in different formats is never interchangeable.
+    default String getOutputFormat() {
+        return "mp3";
+    }
+
+    default List<ConnectionStatus> getConnectionStatus() {
+        return List.of();
+    }
+
+    // Null if there is no cache in front of the service.
+    default CacheStatistics getCacheStatistics() {
+        return null;
+    }
+
+    // Starts opening any connections the synthesizer will need. Should not block.
+    default void warmUp() {
+    }
+
+    @Override
+    default void close() {
+    }
 }
@@ -0,0 +1,149 @@
+package lilytts.synthesis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stores synthesized audio on disk, keyed by a hash of everything that affects the audio. Once the cache grows past
+// its size limit, the least recently used entries are deleted.
+public class SynthesisCache {
+    private static final String ENTRY_EXTENSION = ".mp3";
+    private static final String TEMP_FILE_PREFIX = "pending-";
+
+    private final File directory;
+    private final long maxSizeBytes;
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    public SynthesisCache(File directory, long maxSizeBytes) {
+        if (maxSizeBytes < 1) {
+            throw new IllegalArgumentException("maxSizeBytes must be at least 1: " + maxSizeBytes);
+        }
+
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    // SSML already names the voice, so the SSML and the output format are everything that decides the audio.
+    public static String getKey(String ssml, String outputFormat) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(outputFormat.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(ssml.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available: " + e.getMessage(), e);
+        }
+    }
+
+    // Opens the cached audio for the key, or returns null if there isn't any. The entry is opened while eviction is
+    // held off, and an open entry stays readable even if it is evicted before the caller is done with it.
+    public InputStream open(String key) throws IOException {
+        final File entry = getEntryFile(key);
+
+        synchronized (evictionLock) {
+            if (entry.length() > 0) {
+                try {
+                    final InputStream input = Files.newInputStream(entry.toPath());
+
+                    // The modified time doubles as the last access time for eviction.
+                    entry.setLastModified(System.currentTimeMillis());
+                    return input;
+                } catch (NoSuchFileException e) {
+                    // Deleted by something other than this cache since the length was checked.
+                }
+            }
+        }
+
+        return null;
+    }
+
+    // Gives a place to write new audio before it is added with put().
+    public File createTempFile() throws IOException {
+        Files.createDirectories(directory.toPath());
+        return File.createTempFile(TEMP_FILE_PREFIX, ENTRY_EXTENSION, directory);
+    }
+
+    // Moves the audio file into the cache and opens the cached copy. The entry appears all at once, so a reader
+    // never sees a partly written entry.
+    public InputStream put(String key, File audioFile) throws IOException {
+        final Path entryPath = getEntryFile(key).toPath();
+
+        Files.createDirectories(directory.toPath());
+
+        // Opened before anything else can be evicted, so a put running at the same time can't delete it first.
+        synchronized (evictionLock) {
+            try {
+                Files.move(audioFile.toPath(), entryPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(audioFile.toPath(), entryPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            final InputStream input = Files.newInputStream(entryPath);
+            evictIfNeeded(key);
+            return input;
+        }
+    }
+
+    private void evictIfNeeded(String keepKey) {
+        synchronized (evictionLock) {
+            final File[] entries = directory.listFiles((dir, name) -> name.endsWith(ENTRY_EXTENSION) && !name.startsWith(TEMP_FILE_PREFIX));
+
+            if (entries == null) {
+                return;
+            }
+
+            long totalSize = Arrays.stream(entries).mapToLong(x -> x.length()).sum();
+
+            if (totalSize <= maxSizeBytes) {
+                return;
+            }
+
+            Arrays.sort(entries, Comparator.comparingLong(x -> x.lastModified()));
+            final File keepFile = getEntryFile(keepKey);
+
+            for (File entry : entries) {
+                if (totalSize <= maxSizeBytes) {
+                    break;
+                }
+
+                // Never evict the entry that was just added; the caller is about to read it.
+                if (entry.equals(keepFile)) {
+                    continue;
+                }
+
+                final long entrySize = entry.length();
+
+                if (entry.delete()) {
+                    totalSize -= entrySize;
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(directory, key + ENTRY_EXTENSION);
+    }
+}
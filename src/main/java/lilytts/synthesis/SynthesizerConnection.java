@@ -0,0 +1,112 @@
+package lilytts.synthesis;
+
+// Tracks the load on one of the synthesizers behind a CompoundSynthesizer. The mutable state is guarded by the
+// CompoundSynthesizer that owns the connection.
+public class SynthesizerConnection {
+    private final SpeechSynthesizer synthesizer;
+    private final int weight;
+    private final int maxConcurrentRequests;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private int requestsInFlight = 0;
+    private long requestsStarted = 0;
+
+    public SynthesizerConnection(SpeechSynthesizer synthesizer) {
+        this(synthesizer, 1, 0);
+    }
+
+    // A maxConcurrentRequests of 0 means there is no limit on how many requests can be sent at once.
+    public SynthesizerConnection(SpeechSynthesizer synthesizer, int weight, int maxConcurrentRequests) {
+        this(synthesizer, weight, maxConcurrentRequests, new AdaptiveRateLimiter());
+    }
+
+    public SynthesizerConnection(SpeechSynthesizer synthesizer, int weight, int maxConcurrentRequests, AdaptiveRateLimiter rateLimiter) {
+        this(synthesizer, weight, maxConcurrentRequests, rateLimiter, new CircuitBreaker());
+    }
+
+    public SynthesizerConnection(SpeechSynthesizer synthesizer, int weight, int maxConcurrentRequests, AdaptiveRateLimiter rateLimiter, CircuitBreaker circuitBreaker) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1: " + weight);
+        }
+
+        if (maxConcurrentRequests < 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests must not be negative: " + maxConcurrentRequests);
+        }
+
+        this.synthesizer = synthesizer;
+        this.weight = weight;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public SpeechSynthesizer getSynthesizer() {
+        return synthesizer;
+    }
+
+    public String getDisplayName() {
+        return synthesizer.getDisplayName();
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public AdaptiveRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    ConnectionStatus getStatus() {
+        return new ConnectionStatus(getDisplayName(), rateLimiter.getCurrentRate(), requestsInFlight, rateLimiter.isCoolingDown(), circuitBreaker.getState());
+    }
+
+    // Whether this connection should get requests at all, or be passed over for the next one.
+    boolean isHealthy() {
+        return !rateLimiter.isCoolingDown() && circuitBreaker.getDelayNanos() == 0;
+    }
+
+    // Returns 0 if a request could start right now, -1 if the connection is waiting for a probe request to finish,
+    // or otherwise how long until it could take another request.
+    long getDelayNanos() {
+        final long circuitDelay = circuitBreaker.getDelayNanos();
+
+        if (circuitDelay < 0) {
+            return -1;
+        }
+
+        return Math.max(circuitDelay, rateLimiter.getDelayNanos());
+    }
+
+    boolean hasCapacity() {
+        return maxConcurrentRequests == 0 || requestsInFlight < maxConcurrentRequests;
+    }
+
+    // Requests in flight per unit of weight. Lower means this connection should get the next request.
+    double getLoad() {
+        return (double) requestsInFlight / weight;
+    }
+
+    // Requests sent so far per unit of weight. Used to spread requests by weight when the loads are equal.
+    double getUsage() {
+        return (double) requestsStarted / weight;
+    }
+
+    void startRequest() {
+        rateLimiter.acquire();
+        circuitBreaker.onRequestStarted();
+        requestsInFlight++;
+        requestsStarted++;
+    }
+
+    void finishRequest() {
+        requestsInFlight--;
+    }
+}
@@ -4,6 +4,8 @@ public class AzureSpeechConnection {
     private String displayName;
     private String serviceRegion;
     private String subscriptionKey;
+    private int weight = 1;
+    private int maxConcurrentRequests = 0;
 
     public String getDisplayName() {
         return displayName;
@@ -28,4 +30,20 @@ public class AzureSpeechConnection {
     public void setSubscriptionKey(String subscriptionKey) {
         this.subscriptionKey = subscriptionKey;
     }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
 }
@@ -4,6 +4,7 @@ public class BookConfig {
     private AzureSynthesisConfig audio = new AzureSynthesisConfig();
     private BookInfo metadata = new BookInfo();
     private BookSourceFilesConfig files = new BookSourceFilesConfig();
+    private BookParsingConfig parsing = new BookParsingConfig();
 
     public AzureSynthesisConfig getAudio() {
         return audio;
@@ -28,4 +29,12 @@ public class BookConfig {
     public void setFiles(BookSourceFilesConfig files) {
         this.files = files;
     }
+
+    public BookParsingConfig getParsing() {
+        return parsing;
+    }
+
+    public void setParsing(BookParsingConfig parsing) {
+        this.parsing = parsing;
+    }
 }
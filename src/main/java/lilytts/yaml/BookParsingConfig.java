@@ -0,0 +1,16 @@
+package lilytts.yaml;
+
+import java.util.Collections;
+import java.util.List;
+
+public class BookParsingConfig {
+    private List<TextRuleConfig> rules = Collections.emptyList();
+
+    public List<TextRuleConfig> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<TextRuleConfig> rules) {
+        this.rules = rules;
+    }
+}
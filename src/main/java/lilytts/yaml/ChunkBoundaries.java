@@ -0,0 +1,9 @@
+package lilytts.yaml;
+
+public enum ChunkBoundaries {
+    // Fill each chunk as full as it can go.
+    Greedy,
+
+    // End chunks at points chosen from the text itself, so editing the text only changes nearby chunks.
+    ContentDefined
+}
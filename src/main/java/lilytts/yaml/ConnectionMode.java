@@ -0,0 +1,9 @@
+package lilytts.yaml;
+
+public enum ConnectionMode {
+    // Use the first connection until it is throttled, then move on to the next one.
+    PriorityOrder,
+
+    // Spread requests across every connection according to their weights and limits.
+    LoadBalance
+}
@@ -0,0 +1,22 @@
+package lilytts.yaml;
+
+public class HedgingConfig {
+    private double latencyPercentile = 95;
+    private double maxHedgedRequestRatio = 0.05;
+
+    public double getLatencyPercentile() {
+        return latencyPercentile;
+    }
+
+    public void setLatencyPercentile(double latencyPercentile) {
+        this.latencyPercentile = latencyPercentile;
+    }
+
+    public double getMaxHedgedRequestRatio() {
+        return maxHedgedRequestRatio;
+    }
+
+    public void setMaxHedgedRequestRatio(double maxHedgedRequestRatio) {
+        this.maxHedgedRequestRatio = maxHedgedRequestRatio;
+    }
+}
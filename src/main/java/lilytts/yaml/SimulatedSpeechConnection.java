@@ -0,0 +1,85 @@
+package lilytts.yaml;
+
+public class SimulatedSpeechConnection {
+    private String displayName;
+    private long medianLatencyMillis = 2000;
+    private double latencySpread = 0.5;
+    private double throttleRate = 0;
+    private double maxRequestsPerSecond = 0;
+    private double errorRate = 0;
+    private double charactersPerSecond = 15;
+    private int weight = 1;
+    private int maxConcurrentRequests = 0;
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public void setDisplayName(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public long getMedianLatencyMillis() {
+        return medianLatencyMillis;
+    }
+
+    public void setMedianLatencyMillis(long medianLatencyMillis) {
+        this.medianLatencyMillis = medianLatencyMillis;
+    }
+
+    public double getLatencySpread() {
+        return latencySpread;
+    }
+
+    public void setLatencySpread(double latencySpread) {
+        this.latencySpread = latencySpread;
+    }
+
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    public double getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    public void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public double getCharactersPerSecond() {
+        return charactersPerSecond;
+    }
+
+    public void setCharactersPerSecond(double charactersPerSecond) {
+        this.charactersPerSecond = charactersPerSecond;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+}
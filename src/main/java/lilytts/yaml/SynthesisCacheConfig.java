@@ -0,0 +1,22 @@
+package lilytts.yaml;
+
+public class SynthesisCacheConfig {
+    private String directory;
+    private long maxSizeMegabytes = 2048;
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSizeMegabytes() {
+        return maxSizeMegabytes;
+    }
+
+    public void setMaxSizeMegabytes(long maxSizeMegabytes) {
+        this.maxSizeMegabytes = maxSizeMegabytes;
+    }
+}
@@ -0,0 +1,61 @@
+package lilytts.yaml;
+
+import lilytts.parsing.text.BlockRule;
+
+public class TextRuleConfig {
+    private String pattern;
+    private BlockRule.Action action;
+    private String firstCharacters;
+    private int minLength = 0;
+    private int maxLength = 0;
+    private boolean ignoreCase = false;
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public BlockRule.Action getAction() {
+        return action;
+    }
+
+    public void setAction(BlockRule.Action action) {
+        this.action = action;
+    }
+
+    public String getFirstCharacters() {
+        return firstCharacters;
+    }
+
+    public void setFirstCharacters(String firstCharacters) {
+        this.firstCharacters = firstCharacters;
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    public void setMinLength(int minLength) {
+        this.minLength = minLength;
+    }
+
+    // 0 means no limit.
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    public void setIgnoreCase(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+}
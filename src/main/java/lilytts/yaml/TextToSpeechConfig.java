@@ -1,9 +1,18 @@
 package lilytts.yaml;
 
 import java.util.List;
+import java.util.Map;
 
 public class TextToSpeechConfig {
     private List<AzureSpeechConnection> azureConnections;
+    private List<SimulatedSpeechConnection> simulatedConnections;
+    private ConnectionMode connectionMode = ConnectionMode.PriorityOrder;
+    private int maxConcurrentChunks = 1;
+    private ChunkBoundaries chunkBoundaries = ChunkBoundaries.Greedy;
+    private SynthesisCacheConfig synthesisCache;
+    private HedgingConfig hedging;
+    private double maxChunkSeconds = 0;
+    private Map<String, Double> voiceCharactersPerSecond;
 
     public List<AzureSpeechConnection> getAzureConnections() {
         return azureConnections;
@@ -11,5 +20,69 @@ public class TextToSpeechConfig {
 
     public void setAzureConnections(List<AzureSpeechConnection> azureConnections) {
         this.azureConnections = azureConnections;
-    }    
+    }
+
+    public List<SimulatedSpeechConnection> getSimulatedConnections() {
+        return simulatedConnections;
+    }
+
+    public void setSimulatedConnections(List<SimulatedSpeechConnection> simulatedConnections) {
+        this.simulatedConnections = simulatedConnections;
+    }
+
+    public ConnectionMode getConnectionMode() {
+        return connectionMode;
+    }
+
+    public void setConnectionMode(ConnectionMode connectionMode) {
+        this.connectionMode = connectionMode;
+    }
+
+    public int getMaxConcurrentChunks() {
+        return maxConcurrentChunks;
+    }
+
+    public void setMaxConcurrentChunks(int maxConcurrentChunks) {
+        this.maxConcurrentChunks = maxConcurrentChunks;
+    }
+
+    public ChunkBoundaries getChunkBoundaries() {
+        return chunkBoundaries;
+    }
+
+    public void setChunkBoundaries(ChunkBoundaries chunkBoundaries) {
+        this.chunkBoundaries = chunkBoundaries;
+    }
+
+    public SynthesisCacheConfig getSynthesisCache() {
+        return synthesisCache;
+    }
+
+    public void setSynthesisCache(SynthesisCacheConfig synthesisCache) {
+        this.synthesisCache = synthesisCache;
+    }
+
+    public HedgingConfig getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(HedgingConfig hedging) {
+        this.hedging = hedging;
+    }
+
+    public double getMaxChunkSeconds() {
+        return maxChunkSeconds;
+    }
+
+    public void setMaxChunkSeconds(double maxChunkSeconds) {
+        this.maxChunkSeconds = maxChunkSeconds;
+    }
+
+    public Map<String, Double> getVoiceCharactersPerSecond() {
+        return voiceCharactersPerSecond;
+    }
+
+    public void setVoiceCharactersPerSecond(Map<String, Double> voiceCharactersPerSecond) {
+        this.voiceCharactersPerSecond = voiceCharactersPerSecond;
+    }
 }
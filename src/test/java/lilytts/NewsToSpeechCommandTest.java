@@ -0,0 +1,17 @@
+package lilytts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class NewsToSpeechCommandTest {
+    @Test
+    public void testReadsPriorityComments() {
+        assertEquals(Integer.valueOf(3), NewsToSpeechCommand.parsePriority("articles/first.txt # priority=3"));
+        assertEquals(Integer.valueOf(-2), NewsToSpeechCommand.parsePriority("articles/second.txt #priority = -2"));
+        assertEquals(Integer.valueOf(10), NewsToSpeechCommand.parsePriority("articles/third.txt # breaking news, priority=10"));
+        assertNull(NewsToSpeechCommand.parsePriority("articles/fourth.txt"));
+        assertNull(NewsToSpeechCommand.parsePriority("articles/fifth.txt # low priority"));
+    }
+}
@@ -0,0 +1,190 @@
+package lilytts.parsing.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import lilytts.content.ChapterTitleContent;
+import lilytts.content.ContentItem;
+import lilytts.content.ParagraphContent;
+import lilytts.content.SectionBreakContent;
+import lilytts.ssml.SSMLWriter;
+
+public class TextContentParserTest {
+    private static final List<String> TEXTS = List.of(
+        "",
+        "\n\n\n",
+        "Chapter 1\n\nOne line.",
+        "Chapter 1\r\n\r\nWrapped\r\nlines\r\n\r\n---\r\n\r\nAfter the break.\r\n",
+        "Old\rMac\r\rline ends\r",
+        "  Leading and trailing spaces  \n\t\n   \nTabs\tinside\n",
+        "Control \u0001\n\u0001\n\nafter control characters",
+        "Café naïve — “quotes” 😀\n\n-----Part Two-----\n\nPublished today by Some Paper.\n",
+        "Ends with a carriage return\r");
+
+    private final TextContentParser parser = TextContentParser.builder().setRecognizeArticlePublisher(true).build();
+    private final SSMLWriter ssmlWriter = SSMLWriter.builder().build();
+
+    @Test
+    public void testStreamContentMatchesReadContent() throws IOException {
+        final List<String> texts = new ArrayList<>(TEXTS);
+        texts.add(makeLongText());
+
+        for (Charset charset : List.of(StandardCharsets.UTF_8, StandardCharsets.UTF_16, StandardCharsets.ISO_8859_1)) {
+            for (String text : texts) {
+                final String decodedText = new String(text.getBytes(charset), charset);
+                final List<ContentItem> expected = parser.readContent(new StringReader(decodedText));
+
+                final Path inputFile = writeTempFile(text, charset);
+
+                try (Stream<ContentItem> content = parser.streamContent(inputFile, charset)) {
+                    assertEquals(ssmlWriter.toSSML(expected), ssmlWriter.toSSML(content.collect(Collectors.toList())));
+                } finally {
+                    Files.delete(inputFile);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlocksAcrossBufferBoundaries() throws IOException {
+        final TextContentParser blockParser = TextContentParser.builder()
+            .setRecognizeChapter(false)
+            .setRecognizeSectionBreaks(false)
+            .setAppendChapterEnd(false)
+            .build();
+
+        for (String text : TEXTS) {
+            final List<String> expected = blockParser.readContent(new StringReader(text)).stream()
+                .map(x -> ((ParagraphContent) x).getContent())
+                .collect(Collectors.toList());
+
+            final Path inputFile = writeTempFile(text, StandardCharsets.UTF_8);
+
+            try {
+                for (int bufferSize = 1; bufferSize <= 8; bufferSize++) {
+                    final List<String> blocks = new ArrayList<>();
+
+                    try (TextBlockReader reader = new TextBlockReader(inputFile, StandardCharsets.UTF_8, bufferSize)) {
+                        for (String block = reader.readBlock(); block != null; block = reader.readBlock()) {
+                            blocks.add(block);
+                        }
+                    }
+
+                    assertEquals(text, expected, blocks);
+                }
+            } finally {
+                Files.delete(inputFile);
+            }
+        }
+    }
+
+    @Test
+    public void testRulesRunInOrder() throws IOException {
+        final TextContentParser ruleParser = TextContentParser.builder()
+            .setRecognizeChapter(false)
+            .setAppendChapterEnd(false)
+            .addRule(BlockRule.builder(Pattern.compile("\\d+"), BlockRule.Action.Drop)
+                .withFirstCharacters("0123456789")
+                .build())
+            .addRule(BlockRule.builder(Pattern.compile("(?<title>.+) \\*\\*\\*"), BlockRule.Action.SectionBreak)
+                .build())
+            .addRule(BlockRule.builder(Pattern.compile("(CHAPTER|-{3}) (?<title>.+)"), BlockRule.Action.ChapterTitle)
+                .withFirstCharacters("C-")
+                .withLength(5, 40)
+                .build())
+            .build();
+
+        final String text = String.join("\n\n",
+            "First paragraph.",
+            "12",
+            "CHAPTER Two",
+            "--- Not a section break",
+            "Interlude ***",
+            "CHAPTER Three ***",
+            "CHAPTER " + "x".repeat(40),
+            "----------",
+            "123 is not only digits.");
+
+        final List<ContentItem> content = ruleParser.readContent(new StringReader(text));
+
+        assertEquals(8, content.size());
+        assertEquals("First paragraph.", ((ParagraphContent) content.get(0)).getContent());
+        assertEquals("Two", ((ChapterTitleContent) content.get(1)).getContent());
+        assertEquals("Not a section break", ((ChapterTitleContent) content.get(2)).getContent());
+        assertEquals("Interlude", ((SectionBreakContent) content.get(3)).getSectionTitle());
+
+        // The rule without first characters was added first, so it wins over the chapter rule.
+        assertEquals("CHAPTER Three", ((SectionBreakContent) content.get(4)).getSectionTitle());
+
+        // Too long for the chapter rule.
+        assertTrue(content.get(5) instanceof ParagraphContent);
+
+        // The built in section break rule still runs after the added rules.
+        assertTrue(content.get(6) instanceof SectionBreakContent);
+        assertEquals("123 is not only digits.", ((ParagraphContent) content.get(7)).getContent());
+    }
+
+    private static String makeLongText() {
+        final StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < 5000; i++) {
+            text.append(i % 7 == 0 ? "\r\n" : "\n").append("Line ").append(i).append(i % 3 == 0 ? " café\n" : " plain text\n");
+        }
+
+        return text.toString();
+    }
+
+    private static Path writeTempFile(String text, Charset charset) throws IOException {
+        final Path file = Files.createTempFile("lilytts-parser-test", ".txt");
+        Files.write(file, text.getBytes(charset));
+        return file;
+    }
+
+    @Test
+    public void testIgnoreCaseRulesTryEitherCaseOfFirstCharacters() throws IOException {
+        final TextContentParser ruleParser = TextContentParser.builder()
+            .setRecognizeChapter(false)
+            .setAppendChapterEnd(false)
+            .addRule(BlockRule.builder(Pattern.compile("chapter (?<title>.+)", Pattern.CASE_INSENSITIVE), BlockRule.Action.ChapterTitle)
+                .withFirstCharacters("c")
+                .build())
+            .build();
+
+        final List<ContentItem> content = ruleParser.readContent(new StringReader("chapter One\n\nCHAPTER Two\n\nChapter Three"));
+
+        assertEquals(3, content.size());
+        assertEquals("One", ((ChapterTitleContent) content.get(0)).getContent());
+        assertEquals("Two", ((ChapterTitleContent) content.get(1)).getContent());
+        assertEquals("Three", ((ChapterTitleContent) content.get(2)).getContent());
+    }
+
+    @Test
+    public void testTitleGroupComesFromThePatternNotItsText() throws IOException {
+        // A literal pattern has no groups, even though its text looks like it has a title group.
+        final TextContentParser ruleParser = TextContentParser.builder()
+            .setRecognizeChapter(false)
+            .setAppendChapterEnd(false)
+            .addRule(BlockRule.builder(Pattern.compile("(?<title>)", Pattern.LITERAL), BlockRule.Action.ChapterTitle)
+                .build())
+            .build();
+
+        final List<ContentItem> content = ruleParser.readContent(new StringReader("(?<title>)"));
+
+        assertEquals(1, content.size());
+        assertEquals("(?<title>)", ((ChapterTitleContent) content.get(0)).getContent());
+    }
+}
@@ -0,0 +1,51 @@
+package lilytts.processing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import lilytts.processing.TextFileProcessor.ParsedTextFile;
+
+public class TextFileProcessorTest {
+    @Test
+    public void testListOrderKeepsInputOrder() {
+        final List<ParsedTextFile> files = makeFiles(300, 100, 200);
+
+        assertEquals(List.of(0, 1, 2), TextFileProcessor.getDispatchOrder(files, SchedulingPolicy.ListOrder, Map.of()));
+    }
+
+    @Test
+    public void testShortestFirstKeepsInputOrderForTies() {
+        final List<ParsedTextFile> files = makeFiles(300, 100, 200, 100, 300);
+
+        assertEquals(List.of(1, 3, 2, 0, 4), TextFileProcessor.getDispatchOrder(files, SchedulingPolicy.ShortestFirst, Map.of()));
+    }
+
+    @Test
+    public void testPriorityPutsHigherPrioritiesFirst() {
+        final List<ParsedTextFile> files = makeFiles(100, 100, 100, 100, 100);
+
+        // Files without a priority count as priority 0, and ties keep their input order.
+        final Map<File, Integer> priorities = Map.of(
+            files.get(1).getInputFile(), 5,
+            files.get(2).getInputFile(), -1,
+            files.get(3).getInputFile(), 5);
+
+        assertEquals(List.of(1, 3, 0, 4, 2), TextFileProcessor.getDispatchOrder(files, SchedulingPolicy.Priority, priorities));
+    }
+
+    private static List<ParsedTextFile> makeFiles(int... ssmlLengths) {
+        final List<ParsedTextFile> files = new ArrayList<>();
+
+        for (int i = 0; i < ssmlLengths.length; i++) {
+            files.add(new ParsedTextFile(new File("article " + i + ".txt"), List.of(), ssmlLengths[i], 0, 0, new File("article " + i + ".mp3"), false));
+        }
+
+        return files;
+    }
+}
@@ -0,0 +1,158 @@
+package lilytts.ssml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import lilytts.content.ChapterEndContent;
+import lilytts.content.ChapterTitleContent;
+import lilytts.content.ContentItem;
+import lilytts.content.ParagraphContent;
+import lilytts.content.SectionBreakContent;
+import lilytts.synthesis.AzureCostEstimator;
+
+public class SSMLSplitterTest {
+    @Test
+    public void testSplitContentMatchesSplitSSML() {
+        final List<SSMLWriter> ssmlWriters = List.of(
+            SSMLWriter.builder().build(),
+            SSMLWriter.builder().withVoice("en-US-JennyNeural").build(),
+            SSMLWriter.builder().withVoice("en-US-AriaNeural").withVoiceStyle("chat").withProsodyRate("10%").withPitch("-5%").build());
+
+        final List<SSMLSplitter> splitters = List.of(
+            new SSMLSplitter(),
+            new SSMLSplitter(40),
+            new SSMLSplitter(200),
+            SSMLSplitter.builder().withMaxChunkWeight(200).withContentDefinedBoundaries().build(),
+            SSMLSplitter.builder().withMaxChunkDuration(4, new SpeechDurationEstimator(15, Map.of("en-US-AriaNeural", 10.0))).build());
+
+        final List<List<ContentItem>> contents = List.of(
+            List.of(),
+            List.of(new ParagraphContent("Just one paragraph.")),
+            makeChapter(50));
+
+        for (SSMLWriter ssmlWriter : ssmlWriters) {
+            for (SSMLSplitter splitter : splitters) {
+                for (List<ContentItem> content : contents) {
+                    assertEquals(splitter.splitSSML(ssmlWriter.toSSML(content)), getSsml(splitter.splitContent(content, ssmlWriter)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSplitsOversizedParagraphIntoSentences() {
+        final SSMLWriter ssmlWriter = SSMLWriter.builder().withVoice("en-US-JennyNeural").build();
+        final SSMLSplitter splitter = new SSMLSplitter(60);
+
+        final List<ContentItem> content = List.of(
+            new ParagraphContent("Short one."),
+            new ParagraphContent("The first sentence is here. The second one is a bit longer, with a clause. "
+                + "Then a third, which runs on and on without stopping for anything at all until it ends. Done."),
+            new ParagraphContent("Short two."));
+
+        final List<String> chunks = getSsml(splitter.splitContent(content, ssmlWriter));
+
+        assertEquals(splitter.splitSSML(ssmlWriter.toSSML(content)), chunks);
+        assertEquals(4, chunks.size());
+
+        for (String chunk : chunks) {
+            assertTrue(chunk, chunk.replaceAll("<[^>]*>", "").length() <= 60);
+        }
+    }
+
+    @Test
+    public void testDurationSizedChunksFollowVoiceAndRate() {
+        final SSMLSplitter splitter = SSMLSplitter.builder()
+            .withMaxChunkDuration(20, new SpeechDurationEstimator(15, Map.of("en-US-AriaNeural", 10.0)))
+            .build();
+
+        final List<ContentItem> content = makeChapter(50);
+        final int defaultChunks = splitter.splitContent(content, SSMLWriter.builder().withVoice("en-US-JennyNeural").build()).size();
+        final int slowVoiceChunks = splitter.splitContent(content, SSMLWriter.builder().withVoice("en-US-AriaNeural").build()).size();
+        final int fastRateChunks = splitter.splitContent(content, SSMLWriter.builder().withVoice("en-US-JennyNeural").withProsodyRate("+50%").build()).size();
+
+        assertTrue(slowVoiceChunks > defaultChunks);
+        assertTrue(fastRateChunks < defaultChunks);
+    }
+
+    @Test
+    public void testDurationSizedChunksCountBreakTime() {
+        final SSMLWriter ssmlWriter = SSMLWriter.builder().withVoice("en-US-JennyNeural").build();
+        final SSMLSplitter splitter = SSMLSplitter.builder()
+            .withMaxChunkDuration(20, new SpeechDurationEstimator(15, Map.of()))
+            .build();
+
+        final List<ContentItem> content = new ArrayList<>();
+
+        for (int i = 0; i < 40; i++) {
+            content.add(new SectionBreakContent("Part " + i));
+            content.add(new ParagraphContent("A short paragraph."));
+        }
+
+        final List<String> chunks = getSsml(splitter.splitContent(content, ssmlWriter));
+        assertEquals(splitter.splitSSML(ssmlWriter.toSSML(content)), chunks);
+
+        for (String chunk : chunks) {
+            final int breakSeconds = 2 * countOccurrences(chunk, "<break time=\"2s\">") + countOccurrences(chunk, "<break time=\"1s\">");
+            final double textSeconds = chunk.replaceAll("<[^>]*>", "").length() / 15.0;
+
+            assertTrue(chunk, breakSeconds + textSeconds <= 20 * 0.9);
+        }
+    }
+
+    @Test
+    public void testChunksComeWithTheirBillableCharacters() {
+        final AzureCostEstimator costEstimator = new AzureCostEstimator();
+        final SSMLWriter ssmlWriter = SSMLWriter.builder().withVoice("en-US-AriaNeural").withVoiceStyle("chat").withProsodyRate("10%").withPitch("-5%").build();
+        final SSMLSplitter splitter = new SSMLSplitter(200);
+        final List<ContentItem> content = makeChapter(50);
+
+        final List<SSMLChunk> chunks = splitter.splitContent(content, ssmlWriter);
+        long totalBillableCharacters = 0;
+
+        assertTrue(chunks.size() > 1);
+
+        for (SSMLChunk chunk : chunks) {
+            assertEquals(chunk.getSsml(), costEstimator.countBillableCharacters(chunk.getSsml()), chunk.getBillableCharacters());
+            totalBillableCharacters += chunk.getBillableCharacters();
+        }
+
+        // Every chunk repeats the envelope, so the chunks cost more than the whole document would.
+        final StringBuilder appendedChunks = new StringBuilder();
+        assertEquals(totalBillableCharacters, splitter.appendChunks(content, ssmlWriter, appendedChunks));
+        assertEquals(String.join("", getSsml(chunks)), appendedChunks.toString());
+        assertTrue(totalBillableCharacters > costEstimator.countBillableCharacters(ssmlWriter.toSSML(content)));
+    }
+
+    private static List<String> getSsml(List<SSMLChunk> chunks) {
+        return chunks.stream().map(SSMLChunk::getSsml).collect(Collectors.toList());
+    }
+
+    private static int countOccurrences(String text, String target) {
+        return text.split(Pattern.quote(target), -1).length - 1;
+    }
+
+    private static List<ContentItem> makeChapter(int paragraphCount) {
+        final List<ContentItem> content = new ArrayList<>();
+        content.add(new ChapterTitleContent("Chapter 1: Cats & <Dogs>"));
+
+        for (int i = 0; i < paragraphCount; i++) {
+            if (i % 10 == 9) {
+                content.add(new SectionBreakContent(i % 20 == 9 ? "" : "Part " + i));
+            }
+
+            content.add(new ParagraphContent("Paragraph " + i + " says \"hello\" & goes on for a while, " + "word ".repeat(i % 13) + "and ends > here."));
+        }
+
+        content.add(new ChapterEndContent());
+        return content;
+    }
+}
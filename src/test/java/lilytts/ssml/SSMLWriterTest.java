@@ -0,0 +1,50 @@
+package lilytts.ssml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import lilytts.content.ArticlePublisherContent;
+import lilytts.content.ChapterEndContent;
+import lilytts.content.ChapterTitleContent;
+import lilytts.content.ContentItem;
+import lilytts.content.ParagraphContent;
+import lilytts.content.SectionBreakContent;
+
+public class SSMLWriterTest {
+    @Test
+    public void testToSSML() {
+        final List<ContentItem> content = List.of(
+            new ChapterTitleContent("Cats & <Dogs>"),
+            new ArticlePublisherContent("From \"The Paper\"", "The Paper"),
+            new ParagraphContent("It's 5 > 4, isn't it?"),
+            new SectionBreakContent(),
+            new SectionBreakContent("Part Two"),
+            new ChapterEndContent());
+
+        final SSMLWriter ssmlWriter = SSMLWriter.builder()
+            .withVoice("en-US-AriaNeural")
+            .withVoiceStyle("chat")
+            .withProsodyRate("10%")
+            .withPitch("-5%")
+            .build();
+
+        assertEquals(
+            "<?xml version=\"1.0\" ?><speak version=\"1.0\" xmlns=\"http://www.w3.org/2001/10/synthesis\" xmlns:mstts=\"http://www.w3.org/2001/mstts\" xml:lang=\"en-US\">"
+                + "<voice name=\"en-US-AriaNeural\"><mstts:express-as style=\"chat\"><prosody rate=\"10%\" pitch=\"-5%\">"
+                + "<break time=\"2s\"></break><p>Cats &amp; &lt;Dogs&gt;</p><break time=\"1s\"></break>"
+                + "<p>From \"The Paper\"</p>"
+                + "<p>It's 5 &gt; 4, isn't it?</p>"
+                + "<break time=\"2s\"></break>"
+                + "<break time=\"2s\"></break><p>Part Two</p><break time=\"1s\"></break>"
+                + "<break time=\"2s\"></break>"
+                + "</prosody></mstts:express-as></voice></speak>",
+            ssmlWriter.toSSML(content));
+
+        assertEquals(
+            "<?xml version=\"1.0\" ?><speak version=\"1.0\" xmlns=\"http://www.w3.org/2001/10/synthesis\" xmlns:mstts=\"http://www.w3.org/2001/mstts\" xml:lang=\"en-US\"><p>Hi.</p></speak>",
+            SSMLWriter.builder().build().toSSML(List.of(new ParagraphContent("Hi."))));
+    }
+}
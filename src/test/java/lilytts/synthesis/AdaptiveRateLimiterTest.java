@@ -0,0 +1,141 @@
+package lilytts.synthesis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class AdaptiveRateLimiterTest {
+    private static final long COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testIsUnlimitedUntilThrottled() {
+        final AtomicLong clock = new AtomicLong();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(clock::get, COOLDOWN_NANOS);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, rateLimiter.getDelayNanos());
+            rateLimiter.acquire();
+            rateLimiter.onSuccess();
+        }
+
+        assertTrue(Double.isInfinite(rateLimiter.getCurrentRate()));
+        assertFalse(rateLimiter.isCoolingDown());
+    }
+
+    @Test
+    public void testHalvesTheObservedRateWhenThrottled() {
+        final AtomicLong clock = new AtomicLong();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(clock::get, COOLDOWN_NANOS);
+
+        // Two requests a second for ten seconds.
+        for (int i = 0; i < 20; i++) {
+            rateLimiter.acquire();
+            clock.addAndGet(SECOND / 2);
+        }
+
+        assertTrue(rateLimiter.onThrottled());
+        assertEquals(1.0, rateLimiter.getCurrentRate(), 1e-9);
+
+        // The connection cools down, and other requests throttled at the same time don't lower the rate again.
+        assertTrue(rateLimiter.isCoolingDown());
+        assertEquals(COOLDOWN_NANOS, rateLimiter.getDelayNanos());
+        assertFalse(rateLimiter.onThrottled());
+        assertEquals(1.0, rateLimiter.getCurrentRate(), 1e-9);
+
+        // Successes during the cooldown don't raise the rate either.
+        clock.addAndGet(COOLDOWN_NANOS - SECOND);
+        rateLimiter.onSuccess();
+        assertEquals(1.0, rateLimiter.getCurrentRate(), 1e-9);
+        assertEquals(SECOND, rateLimiter.getDelayNanos());
+    }
+
+    @Test
+    public void testRefillsTokensAtTheCurrentRate() {
+        final AtomicLong clock = new AtomicLong();
+        final AdaptiveRateLimiter rateLimiter = throttledToOnePerSecond(clock);
+
+        // The bucket starts empty once the cooldown is over.
+        clock.addAndGet(COOLDOWN_NANOS);
+        assertFalse(rateLimiter.isCoolingDown());
+        assertEquals(SECOND, rateLimiter.getDelayNanos());
+
+        clock.addAndGet(SECOND / 4);
+        assertEquals(SECOND * 3 / 4, rateLimiter.getDelayNanos());
+
+        clock.addAndGet(SECOND * 3 / 4);
+        assertEquals(0, rateLimiter.getDelayNanos());
+        rateLimiter.acquire();
+        assertEquals(SECOND, rateLimiter.getDelayNanos());
+
+        // An idle connection only saves up one second's worth of requests.
+        clock.addAndGet(10 * SECOND);
+        assertEquals(0, rateLimiter.getDelayNanos());
+        rateLimiter.acquire();
+        assertEquals(SECOND, rateLimiter.getDelayNanos());
+    }
+
+    @Test
+    public void testRecoversAdditivelyWhileRequestsSucceed() {
+        final AtomicLong clock = new AtomicLong();
+        final AdaptiveRateLimiter rateLimiter = throttledToOnePerSecond(clock);
+        clock.addAndGet(COOLDOWN_NANOS);
+
+        // The rate goes up by a fixed step at most once every five seconds, however many requests succeed.
+        clock.addAndGet(4 * SECOND);
+        rateLimiter.onSuccess();
+        assertEquals(1.0, rateLimiter.getCurrentRate(), 1e-9);
+
+        clock.addAndGet(SECOND);
+        rateLimiter.onSuccess();
+        rateLimiter.onSuccess();
+        assertEquals(1.25, rateLimiter.getCurrentRate(), 1e-9);
+
+        clock.addAndGet(5 * SECOND);
+        rateLimiter.onSuccess();
+        assertEquals(1.5, rateLimiter.getCurrentRate(), 1e-9);
+
+        // Being throttled again halves whichever is lower, the current limit or the observed rate.
+        rateLimiter.acquire();
+        assertTrue(rateLimiter.onThrottled());
+        assertEquals(0.5, rateLimiter.getCurrentRate(), 1e-9);
+    }
+
+    @Test
+    public void testNeverGoesBelowTheMinimumRate() {
+        final AtomicLong clock = new AtomicLong();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(clock::get, COOLDOWN_NANOS);
+
+        // Throttled without having sent anything recently.
+        assertTrue(rateLimiter.onThrottled());
+        assertEquals(0.1, rateLimiter.getCurrentRate(), 1e-9);
+
+        for (int i = 0; i < 3; i++) {
+            clock.addAndGet(COOLDOWN_NANOS);
+            assertTrue(rateLimiter.onThrottled());
+            assertEquals(0.1, rateLimiter.getCurrentRate(), 1e-9);
+        }
+
+        // One request every ten seconds.
+        clock.addAndGet(COOLDOWN_NANOS);
+        assertEquals(10 * SECOND, rateLimiter.getDelayNanos());
+    }
+
+    private static AdaptiveRateLimiter throttledToOnePerSecond(AtomicLong clock) {
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(clock::get, COOLDOWN_NANOS);
+
+        for (int i = 0; i < 20; i++) {
+            rateLimiter.acquire();
+            clock.addAndGet(SECOND / 2);
+        }
+
+        rateLimiter.onThrottled();
+        assertEquals(1.0, rateLimiter.getCurrentRate(), 1e-9);
+        return rateLimiter;
+    }
+}
@@ -0,0 +1,84 @@
+package lilytts.synthesis;
+
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import lilytts.content.ChapterEndContent;
+import lilytts.content.ChapterTitleContent;
+import lilytts.content.ContentItem;
+import lilytts.content.ParagraphContent;
+import lilytts.content.SectionBreakContent;
+import lilytts.ssml.SSMLWriter;
+
+public class AzureCostEstimatorTest {
+    // The patterns the estimator used to match, to check the scanner still counts the same characters.
+    private static final Pattern[] EXCLUDED_PATTERNS = new Pattern[] {
+        Pattern.compile("<\\?xml [^>]+ \\?>", CASE_INSENSITIVE),
+        Pattern.compile("<speak [^>]+>", CASE_INSENSITIVE),
+        Pattern.compile("<\\/speak>", CASE_INSENSITIVE),
+        Pattern.compile("<voice [^>]+>", CASE_INSENSITIVE),
+        Pattern.compile("<\\/voice>", CASE_INSENSITIVE),
+    };
+
+    private final AzureCostEstimator estimator = new AzureCostEstimator();
+
+    @Test
+    public void testCountsSameCharactersAsPatterns() {
+        final List<String> ssmlDocuments = List.of(
+            "",
+            "<?xml version=\"1.0\" ?><speak version=\"1.0\"><voice name=\"en-US-JennyNeural\"><p>Hello.</p></voice></speak>",
+            "<SPEAK version=\"1.0\"><Voice name=\"x\"><p>Mixed case</p></VOICE></Speak>",
+            "<speak><voice><p>Tags without attributes are billed</p></voice></speak>",
+            "<?xml?><?xml  ?><p>Broken declarations are billed</p>",
+            "<p>Emoji 😀 and a lone \uDE00 surrogate</p>",
+            "<speak version=\"1.0\"><p>Unclosed <voice name=\"a\"");
+
+        for (String ssml : ssmlDocuments) {
+            assertEquals(ssml, countWithPatterns(ssml), estimator.countBillableCharacters(ssml));
+        }
+    }
+
+    @Test
+    public void testWriterCountsSameCharactersAsEstimator() {
+        final List<SSMLWriter> ssmlWriters = List.of(
+            SSMLWriter.builder().build(),
+            SSMLWriter.builder().withVoice("en-US-JennyNeural").build(),
+            SSMLWriter.builder().withVoice("en-US-AriaNeural").withVoiceStyle("chat").withProsodyRate("10%").withPitch("-5%").build());
+
+        final List<ContentItem> content = new ArrayList<>();
+        content.add(new ChapterTitleContent("Chapter 1: Cats & <Dogs> 🐈"));
+        content.add(new ParagraphContent("A \"quoted\" paragraph. " + "It goes on and on. ".repeat(20)));
+        content.add(new SectionBreakContent("Part 2"));
+        content.add(new ParagraphContent("The end > the beginning."));
+        content.add(new ChapterEndContent());
+
+        for (SSMLWriter ssmlWriter : ssmlWriters) {
+            final StringBuilder output = new StringBuilder();
+            final long billableCharacters = ssmlWriter.appendSSML(content, output);
+
+            assertEquals(estimator.countBillableCharacters(output.toString()), billableCharacters);
+            assertEquals(countWithPatterns(output.toString()), billableCharacters);
+        }
+    }
+
+    private static long countWithPatterns(String ssml) {
+        long characterCount = ssml.codePointCount(0, ssml.length());
+
+        for (Pattern pattern : EXCLUDED_PATTERNS) {
+            final Matcher matcher = pattern.matcher(ssml);
+
+            while (matcher.find()) {
+                characterCount -= matcher.group().codePointCount(0, matcher.group().length());
+            }
+        }
+
+        return characterCount;
+    }
+}
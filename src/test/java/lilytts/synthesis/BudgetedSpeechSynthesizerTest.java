@@ -0,0 +1,147 @@
+package lilytts.synthesis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import lilytts.ssml.SSMLChunk;
+
+public class BudgetedSpeechSynthesizerTest {
+    // Charges a cent per character.
+    private static class CentPerCharacterEstimator implements CostEstimator {
+        @Override
+        public long countBillableCharacters(String ssml) {
+            return ssml.length();
+        }
+
+        @Override
+        public double getCostForCharacters(long billableCharacters) {
+            return billableCharacters / 100.0;
+        }
+    }
+
+    // Notes how much is reserved while the request runs, then succeeds or fails as told.
+    private static class CheckingSynthesizer implements SpeechSynthesizer {
+        private final CostBudget budget;
+        private boolean fail = false;
+        private boolean interrupt = false;
+        private int requestCount = 0;
+        private double reservedCost = 0;
+
+        CheckingSynthesizer(CostBudget budget) {
+            this.budget = budget;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "checking";
+        }
+
+        @Override
+        public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
+            requestCount++;
+            reservedCost = budget.getReservedCost();
+
+            if (interrupt) {
+                Thread.currentThread().interrupt();
+                throw new SpeechSynthesisException("Simulated cancellation");
+            }
+
+            if (fail) {
+                throw new SpeechSynthesisException("Simulated failure");
+            }
+        }
+    }
+
+    @Test
+    public void testReservesCommitsAndReleases() throws SpeechSynthesisException {
+        final CostBudget budget = new CostBudget(1.0);
+        final CheckingSynthesizer inner = new CheckingSynthesizer(budget);
+        final BudgetedSpeechSynthesizer synthesizer = new BudgetedSpeechSynthesizer(inner, budget, new CentPerCharacterEstimator());
+
+        // A request that succeeds is spent.
+        synthesizer.synthesizeSsmlToFile("x".repeat(40), "first.mp3");
+        assertEquals(0.4, inner.reservedCost, 1e-9);
+        assertEquals(0.4, budget.getSpentCost(), 1e-9);
+        assertEquals(0, budget.getReservedCost(), 1e-9);
+
+        // A request that fails gets its reservation back.
+        inner.fail = true;
+
+        try {
+            synthesizer.synthesizeSsmlToFile("x".repeat(50), "second.mp3");
+            fail("The request should have failed.");
+        } catch (SpeechSynthesisException e) {
+            assertFalse(e instanceof CostBudgetExceededException);
+        }
+
+        assertEquals(0.5, inner.reservedCost, 1e-9);
+        assertEquals(0.4, budget.getSpentCost(), 1e-9);
+        assertEquals(0, budget.getReservedCost(), 1e-9);
+        assertEquals(2, inner.requestCount);
+    }
+
+    @Test
+    public void testKeepsTheCostOfStoppedRequests() {
+        final CostBudget budget = new CostBudget(1.0);
+        final CheckingSynthesizer inner = new CheckingSynthesizer(budget);
+        final BudgetedSpeechSynthesizer synthesizer = new BudgetedSpeechSynthesizer(inner, budget, new CentPerCharacterEstimator());
+
+        // A request stopped after it was sent may have been billed already, so its cost isn't given back.
+        inner.interrupt = true;
+
+        try {
+            synthesizer.synthesizeSsmlToFile("x".repeat(40), "first.mp3");
+            fail("The request should have been stopped.");
+        } catch (SpeechSynthesisException e) {
+            assertTrue(Thread.interrupted());
+        }
+
+        assertEquals(0.4, budget.getSpentCost(), 1e-9);
+        assertEquals(0, budget.getReservedCost(), 1e-9);
+    }
+
+    @Test
+    public void testChargesCountedChunksWithoutCountingAgain() throws SpeechSynthesisException {
+        final CostBudget budget = new CostBudget(1.0);
+        final CheckingSynthesizer inner = new CheckingSynthesizer(budget);
+        final BudgetedSpeechSynthesizer synthesizer = new BudgetedSpeechSynthesizer(inner, budget, new CentPerCharacterEstimator() {
+            @Override
+            public long countBillableCharacters(String ssml) {
+                throw new AssertionError("The SSML was counted again.");
+            }
+        });
+
+        // The count from when the chunk was written is what gets charged, whatever the length of the SSML.
+        synthesizer.synthesizeChunkToFile(new SSMLChunk("x".repeat(10), 30), "first.mp3");
+        assertEquals(0.3, inner.reservedCost, 1e-9);
+        assertEquals(0.3, budget.getSpentCost(), 1e-9);
+    }
+
+    @Test
+    public void testRefusesRequestsOverTheBudget() throws SpeechSynthesisException {
+        final CostBudget budget = new CostBudget(1.0);
+        final CheckingSynthesizer inner = new CheckingSynthesizer(budget);
+        final BudgetedSpeechSynthesizer synthesizer = new BudgetedSpeechSynthesizer(inner, budget, new CentPerCharacterEstimator());
+
+        synthesizer.synthesizeSsmlToFile("x".repeat(60), "first.mp3");
+
+        try {
+            synthesizer.synthesizeSsmlToFile("x".repeat(41), "second.mp3");
+            fail("The request should have been refused.");
+        } catch (CostBudgetExceededException e) {
+            // Expected.
+        }
+
+        // Refused requests are never sent, and the rest of the budget can still be used.
+        assertEquals(1, inner.requestCount);
+        synthesizer.synthesizeSsmlToFile("x".repeat(40), "third.mp3");
+        assertEquals(1.0, budget.getSpentCost(), 1e-9);
+        assertEquals(0, budget.getReservedCost(), 1e-9);
+        assertFalse(budget.reserve(0.01));
+        assertTrue(budget.reserve(0));
+    }
+}
@@ -0,0 +1,166 @@
+package lilytts.synthesis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class CachingSpeechSynthesizerTest {
+    private static final String SSML = "<speak><voice name=\"en-US-JennyNeural\">Hello.</voice></speak>";
+
+    // Writes the SSML back as the audio, optionally failing partway through or waiting to be let go.
+    private static class EchoSynthesizer implements SpeechSynthesizer {
+        private final AtomicInteger requestCount = new AtomicInteger();
+        private volatile boolean fail = false;
+        private volatile CountDownLatch waitFor = null;
+
+        @Override
+        public String getDisplayName() {
+            return "echo";
+        }
+
+        @Override
+        public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
+            requestCount.incrementAndGet();
+
+            try {
+                if (waitFor != null && !waitFor.await(10, TimeUnit.SECONDS)) {
+                    throw new SpeechSynthesisException("Timed out waiting to be let go");
+                }
+
+                if (fail) {
+                    Files.writeString(Path.of(outputFilePath), ssml.substring(0, 5), StandardCharsets.UTF_8);
+                    throw new SpeechSynthesisException("Simulated failure");
+                }
+
+                Files.writeString(Path.of(outputFilePath), ssml, StandardCharsets.UTF_8);
+            } catch (IOException | InterruptedException e) {
+                throw new SpeechSynthesisException("Unable to write " + outputFilePath + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Test
+    public void testHitDoesNotCallInnerSynthesizer() throws Exception {
+        final Path workDirectory = Files.createTempDirectory("lilytts-cache-test");
+
+        try {
+            final EchoSynthesizer inner = new EchoSynthesizer();
+            final CachingSpeechSynthesizer synthesizer = createSynthesizer(inner, workDirectory);
+
+            assertEquals(SSML, synthesize(synthesizer, SSML, workDirectory.resolve("first.mp3")));
+            assertEquals(SSML, synthesize(synthesizer, SSML, workDirectory.resolve("second.mp3")));
+            assertEquals(1, inner.requestCount.get());
+
+            // Different SSML is a different entry.
+            final String otherSsml = SSML.replace("Hello", "Goodbye");
+            assertEquals(otherSsml, synthesize(synthesizer, otherSsml, workDirectory.resolve("third.mp3")));
+            assertEquals(2, inner.requestCount.get());
+
+            final CacheStatistics statistics = synthesizer.getCacheStatistics();
+            assertEquals(1, statistics.getHits());
+            assertEquals(2, statistics.getMisses());
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    @Test
+    public void testIdenticalRequestsAtOnceCallInnerSynthesizerOnce() throws Exception {
+        final Path workDirectory = Files.createTempDirectory("lilytts-cache-test");
+        final int requestCount = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(requestCount);
+
+        try {
+            final EchoSynthesizer inner = new EchoSynthesizer();
+            final CachingSpeechSynthesizer synthesizer = createSynthesizer(inner, workDirectory);
+
+            // The first request to reach the inner synthesizer holds it until every request has started.
+            final CountDownLatch allStarted = new CountDownLatch(requestCount);
+            inner.waitFor = allStarted;
+
+            final List<Future<String>> results = new ArrayList<>();
+
+            for (int i = 0; i < requestCount; i++) {
+                final Path outputFile = workDirectory.resolve("output " + i + ".mp3");
+
+                results.add(executor.submit(() -> {
+                    allStarted.countDown();
+                    return synthesize(synthesizer, SSML, outputFile);
+                }));
+            }
+
+            for (Future<String> result : results) {
+                assertEquals(SSML, result.get(10, TimeUnit.SECONDS));
+            }
+
+            assertEquals(1, inner.requestCount.get());
+        } finally {
+            executor.shutdownNow();
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    @Test
+    public void testFailedWriteLeavesNoEntry() throws Exception {
+        final Path workDirectory = Files.createTempDirectory("lilytts-cache-test");
+
+        try {
+            final EchoSynthesizer inner = new EchoSynthesizer();
+            final CachingSpeechSynthesizer synthesizer = createSynthesizer(inner, workDirectory);
+            final Path cacheDirectory = workDirectory.resolve("cache");
+
+            inner.fail = true;
+
+            try {
+                synthesizer.synthesizeSsmlToFile(SSML, workDirectory.resolve("first.mp3").toString());
+                fail("The request should have failed.");
+            } catch (SpeechSynthesisException e) {
+                // Expected.
+            }
+
+            // Neither an entry nor the partly written temp file is left behind.
+            try (Stream<Path> files = Files.list(cacheDirectory)) {
+                assertEquals(0, files.count());
+            }
+
+            // So the next request synthesizes again rather than getting the partial audio.
+            inner.fail = false;
+            assertEquals(SSML, synthesize(synthesizer, SSML, workDirectory.resolve("second.mp3")));
+            assertEquals(2, inner.requestCount.get());
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    private static CachingSpeechSynthesizer createSynthesizer(SpeechSynthesizer inner, Path workDirectory) {
+        return new CachingSpeechSynthesizer(inner, new SynthesisCache(workDirectory.resolve("cache").toFile(), 1024 * 1024));
+    }
+
+    private static String synthesize(SpeechSynthesizer synthesizer, String ssml, Path outputFile) throws SpeechSynthesisException, IOException {
+        synthesizer.synthesizeSsmlToFile(ssml, outputFile.toString());
+        return Files.readString(outputFile, StandardCharsets.UTF_8);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
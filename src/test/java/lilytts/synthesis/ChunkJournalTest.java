@@ -0,0 +1,162 @@
+package lilytts.synthesis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class ChunkJournalTest {
+    private static final String FIRST_HASH = "a".repeat(64);
+    private static final String SECOND_HASH = "b".repeat(64);
+    private static final String THIRD_HASH = "c".repeat(64);
+
+    @Test
+    public void testReplaysFinishedChunks() throws IOException {
+        final Path workDirectory = Files.createTempDirectory("lilytts-journal-test");
+
+        try {
+            final File journalFile = workDirectory.resolve("journal.txt").toFile();
+            final File firstChunk = writeChunk(workDirectory, "first.mp3", "first audio");
+            final File secondChunk = writeChunk(workDirectory, "second.mp3", "second audio");
+
+            final ChunkJournal journal = ChunkJournal.open(journalFile);
+            journal.markPending(FIRST_HASH);
+            journal.markDone(FIRST_HASH, firstChunk);
+            journal.markPending(SECOND_HASH);
+
+            // Only the chunk which was finished counts as done once the journal is read back.
+            final ChunkJournal replayed = ChunkJournal.open(journalFile);
+            assertEquals(Set.of(FIRST_HASH, SECOND_HASH), replayed.getHashes());
+            assertTrue(replayed.isDone(FIRST_HASH, firstChunk));
+            assertFalse(replayed.isDone(SECOND_HASH, secondChunk));
+
+            // Once the file is complete, the journal goes away.
+            replayed.delete();
+            assertFalse(journalFile.exists());
+            assertEquals(Set.of(), ChunkJournal.open(journalFile).getHashes());
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    @Test
+    public void testIgnoresTornLastLine() throws IOException {
+        final Path workDirectory = Files.createTempDirectory("lilytts-journal-test");
+
+        try {
+            final File journalFile = workDirectory.resolve("journal.txt").toFile();
+            final File firstChunk = writeChunk(workDirectory, "first.mp3", "first audio");
+            final File secondChunk = writeChunk(workDirectory, "second.mp3", "second audio");
+            final File thirdChunk = writeChunk(workDirectory, "third.mp3", "third audio");
+
+            ChunkJournal.open(journalFile).markDone(FIRST_HASH, firstChunk);
+
+            // A crash cut the line for the second chunk short.
+            Files.writeString(journalFile.toPath(), "Done " + SECOND_HASH + " 12", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+            final ChunkJournal journal = ChunkJournal.open(journalFile);
+            assertTrue(journal.isDone(FIRST_HASH, firstChunk));
+            assertFalse(journal.isDone(SECOND_HASH, secondChunk));
+
+            // Lines written after the torn one still read back.
+            journal.markDone(THIRD_HASH, thirdChunk);
+
+            final ChunkJournal replayed = ChunkJournal.open(journalFile);
+            assertTrue(replayed.isDone(FIRST_HASH, firstChunk));
+            assertFalse(replayed.isDone(SECOND_HASH, secondChunk));
+            assertTrue(replayed.isDone(THIRD_HASH, thirdChunk));
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    @Test
+    public void testRunsChunkAgainWhenItsFileChanged() throws IOException {
+        final Path workDirectory = Files.createTempDirectory("lilytts-journal-test");
+
+        try {
+            final File journalFile = workDirectory.resolve("journal.txt").toFile();
+            final File firstChunk = writeChunk(workDirectory, "first.mp3", "first audio");
+            final File secondChunk = writeChunk(workDirectory, "second.mp3", "second audio");
+            final File thirdChunk = writeChunk(workDirectory, "third.mp3", "third audio");
+
+            final ChunkJournal journal = ChunkJournal.open(journalFile);
+            journal.markDone(FIRST_HASH, firstChunk);
+            journal.markDone(SECOND_HASH, secondChunk);
+            journal.markDone(THIRD_HASH, thirdChunk);
+
+            // Same length but different bytes, so only the checksum gives it away.
+            Files.writeString(firstChunk.toPath(), "FIRST AUDIO", StandardCharsets.UTF_8);
+
+            // Cut short, e.g. by a crash while it was being written.
+            Files.writeString(secondChunk.toPath(), "second", StandardCharsets.UTF_8);
+
+            // Gone altogether.
+            Files.delete(thirdChunk.toPath());
+
+            final ChunkJournal replayed = ChunkJournal.open(journalFile);
+            assertFalse(replayed.isDone(FIRST_HASH, firstChunk));
+            assertFalse(replayed.isDone(SECOND_HASH, secondChunk));
+            assertFalse(replayed.isDone(THIRD_HASH, thirdChunk));
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    @Test
+    public void testForgetsChunksNoLongerInTheFile() throws IOException {
+        final Path workDirectory = Files.createTempDirectory("lilytts-journal-test");
+
+        try {
+            final File journalFile = workDirectory.resolve("journal.txt").toFile();
+            final File firstChunk = writeChunk(workDirectory, "first.mp3", "first audio");
+            final File secondChunk = writeChunk(workDirectory, "second.mp3", "second audio");
+            final File thirdChunk = writeChunk(workDirectory, "third.mp3", "third audio");
+
+            final ChunkJournal journal = ChunkJournal.open(journalFile);
+            journal.markDone(FIRST_HASH, firstChunk);
+            journal.markDone(SECOND_HASH, secondChunk);
+
+            // The chunking changed, so the first chunk's hash is stale and a new chunk took its place.
+            final ChunkJournal rechunked = ChunkJournal.open(journalFile);
+            rechunked.retainOnly(Set.of(SECOND_HASH, THIRD_HASH));
+            rechunked.markDone(THIRD_HASH, thirdChunk);
+
+            assertEquals(Set.of(SECOND_HASH, THIRD_HASH), rechunked.getHashes());
+
+            // The stale hash is gone from the file too, so the journal doesn't grow across runs.
+            final ChunkJournal replayed = ChunkJournal.open(journalFile);
+            assertEquals(Set.of(SECOND_HASH, THIRD_HASH), replayed.getHashes());
+            assertFalse(replayed.isDone(FIRST_HASH, firstChunk));
+            assertTrue(replayed.isDone(SECOND_HASH, secondChunk));
+            assertTrue(replayed.isDone(THIRD_HASH, thirdChunk));
+            assertFalse(Files.readString(journalFile.toPath(), StandardCharsets.UTF_8).contains(FIRST_HASH));
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    private static File writeChunk(Path directory, String fileName, String contents) throws IOException {
+        return Files.writeString(directory.resolve(fileName), contents, StandardCharsets.UTF_8).toFile();
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(directory);
+    }
+}
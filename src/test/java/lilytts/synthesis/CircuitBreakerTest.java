@@ -0,0 +1,138 @@
+package lilytts.synthesis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    @Test
+    public void testOpensOnceEnoughRecentRequestsFail() {
+        final AtomicLong clock = new AtomicLong();
+        final CircuitBreaker breaker = new CircuitBreaker(clock::get, OPEN_NANOS);
+
+        // Too few requests to judge the connection by, even though they all failed.
+        for (int i = 0; i < 4; i++) {
+            assertFalse(breaker.onFailure());
+        }
+
+        assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+        assertEquals(0, breaker.getDelayNanos());
+
+        // Half of the recent requests failing is enough.
+        assertTrue(breaker.onFailure());
+        assertEquals(CircuitBreaker.State.Open, breaker.getState());
+        assertEquals(OPEN_NANOS, breaker.getDelayNanos());
+
+        // Outcomes of requests which were already in flight don't change anything while open.
+        assertFalse(breaker.onFailure());
+        assertFalse(breaker.onSuccess());
+        assertEquals(CircuitBreaker.State.Open, breaker.getState());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(OPEN_NANOS - TimeUnit.SECONDS.toNanos(10), breaker.getDelayNanos());
+    }
+
+    @Test
+    public void testCountsOnlyTheRecentWindow() {
+        final AtomicLong clock = new AtomicLong();
+        final CircuitBreaker breaker = new CircuitBreaker(clock::get, OPEN_NANOS);
+
+        // Failures spread out among successes stay under the threshold.
+        for (int i = 0; i < 5; i++) {
+            assertFalse(breaker.onSuccess());
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertFalse(breaker.onFailure());
+        }
+
+        assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+
+        // Enough successes push the old failures out of the window.
+        for (int i = 0; i < 20; i++) {
+            assertFalse(breaker.onSuccess());
+        }
+
+        assertEquals(0, breaker.getRecentFailures());
+        assertEquals(20, breaker.getRecentRequests());
+
+        // Then a ninth of the window failing is nowhere near enough.
+        for (int i = 0; i < 9; i++) {
+            assertFalse(breaker.onFailure());
+        }
+
+        assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+        assertTrue(breaker.onFailure());
+        assertEquals(CircuitBreaker.State.Open, breaker.getState());
+    }
+
+    @Test
+    public void testLetsOneProbeThroughWhenHalfOpen() {
+        final AtomicLong clock = new AtomicLong();
+        final CircuitBreaker breaker = openBreaker(clock);
+
+        clock.addAndGet(OPEN_NANOS);
+        assertEquals(CircuitBreaker.State.HalfOpen, breaker.getState());
+        assertEquals(0, breaker.getDelayNanos());
+
+        // Only one request goes through. Everyone else waits for its outcome.
+        breaker.onRequestStarted();
+        assertEquals(-1, breaker.getDelayNanos());
+
+        // A probe which ends without an outcome lets another one through.
+        breaker.onRequestAbandoned();
+        assertEquals(0, breaker.getDelayNanos());
+
+        breaker.onRequestStarted();
+        assertEquals(-1, breaker.getDelayNanos());
+
+        // The probe succeeding closes the breaker with a clean slate.
+        assertTrue(breaker.onSuccess());
+        assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+        assertEquals(0, breaker.getDelayNanos());
+        assertEquals(0, breaker.getRecentRequests());
+        assertEquals(0, breaker.getRecentFailures());
+    }
+
+    @Test
+    public void testOpensAgainWhenTheProbeFails() {
+        final AtomicLong clock = new AtomicLong();
+        final CircuitBreaker breaker = openBreaker(clock);
+
+        clock.addAndGet(OPEN_NANOS + TimeUnit.SECONDS.toNanos(5));
+        assertEquals(CircuitBreaker.State.HalfOpen, breaker.getState());
+
+        breaker.onRequestStarted();
+        assertTrue(breaker.onFailure());
+
+        // A whole new round, counted from the failed probe.
+        assertEquals(CircuitBreaker.State.Open, breaker.getState());
+        assertEquals(OPEN_NANOS, breaker.getDelayNanos());
+
+        clock.addAndGet(OPEN_NANOS - 1);
+        assertEquals(CircuitBreaker.State.Open, breaker.getState());
+        assertEquals(1, breaker.getDelayNanos());
+
+        clock.addAndGet(1);
+        assertEquals(CircuitBreaker.State.HalfOpen, breaker.getState());
+        assertEquals(0, breaker.getDelayNanos());
+    }
+
+    private static CircuitBreaker openBreaker(AtomicLong clock) {
+        final CircuitBreaker breaker = new CircuitBreaker(clock::get, OPEN_NANOS);
+
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure();
+        }
+
+        assertEquals(CircuitBreaker.State.Open, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,342 @@
+package lilytts.synthesis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import lilytts.progress.NullProgressListener;
+import lilytts.progress.ProgressListener;
+
+public class CompoundSynthesizerTest {
+    // Matches the number of latencies CompoundSynthesizer needs before it starts hedging.
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    // Records the requests it gets and writes nothing.
+    private static class RecordingSynthesizer implements SpeechSynthesizer {
+        private final String displayName;
+        private final List<String> requests = new ArrayList<>();
+
+        RecordingSynthesizer(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public synchronized void synthesizeSsmlToFile(String ssml, String outputFilePath) {
+            requests.add(ssml);
+        }
+
+        synchronized int getRequestCount() {
+            return requests.size();
+        }
+    }
+
+    // Fails any request for a file, to show the audio was streamed rather than written to a file and copied.
+    private static class StreamOnlySynthesizer implements SpeechSynthesizer {
+        private final SimulatedSynthesizer inner;
+
+        StreamOnlySynthesizer(SimulatedSynthesizer inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return inner.getDisplayName();
+        }
+
+        @Override
+        public void synthesizeSsmlToFile(String ssml, String outputFilePath) {
+            throw new AssertionError("Audio was written to a file: " + outputFilePath);
+        }
+
+        @Override
+        public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+            inner.synthesizeSsmlToStream(ssml, outputFilePath, output, listener);
+        }
+    }
+
+    // Whether the hedge of a held request has been sent or turned down. The held request waits for it, so the primary
+    // attempt is always still running when the hedge is considered, however long the hedging delay turns out to be.
+    private static class HedgeRace {
+        private final AtomicBoolean holdNextRequest = new AtomicBoolean();
+        private volatile CountDownLatch hedgeDecided = new CountDownLatch(0);
+
+        void holdNextRequest() {
+            hedgeDecided = new CountDownLatch(1);
+            holdNextRequest.set(true);
+        }
+    }
+
+    // Answers at once, except for a request held by the race, which waits until another request starts or its hedge
+    // is turned down. Counts the requests it starts and notes the thread of the last one. Writes no audio.
+    private static class RacingSynthesizer implements SpeechSynthesizer {
+        private final String displayName;
+        private final HedgeRace race;
+        private final AtomicLong startedRequests = new AtomicLong();
+        private volatile Thread lastThread = null;
+
+        RacingSynthesizer(String displayName, HedgeRace race) {
+            this.displayName = displayName;
+            this.race = race;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public void synthesizeSsmlToFile(String ssml, String outputFilePath) {
+            throw new AssertionError("Audio was written to a file: " + outputFilePath);
+        }
+
+        @Override
+        public void synthesizeSsmlToStream(String ssml, String outputFilePath, OutputStream output, ProgressListener listener) throws SpeechSynthesisException {
+            startedRequests.incrementAndGet();
+            lastThread = Thread.currentThread();
+
+            if (!race.holdNextRequest.compareAndSet(true, false)) {
+                race.hedgeDecided.countDown();
+                return;
+            }
+
+            try {
+                if (!race.hedgeDecided.await(5, TimeUnit.SECONDS)) {
+                    throw new SpeechSynthesisException("The hedge was never sent or turned down.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SpeechSynthesisException("Interrupted", e);
+            }
+        }
+    }
+
+    // Lets the race know when a hedge doesn't fit in the budget.
+    private static class RacingBudget extends CostBudget {
+        private final HedgeRace race;
+
+        RacingBudget(double maxCost, HedgeRace race) {
+            super(maxCost);
+            this.race = race;
+        }
+
+        @Override
+        public synchronized boolean reserve(double cost) {
+            final boolean reserved = super.reserve(cost);
+
+            if (!reserved) {
+                race.hedgeDecided.countDown();
+            }
+
+            return reserved;
+        }
+    }
+
+    // Every request costs 1.
+    private static class FlatCostEstimator implements CostEstimator {
+        @Override
+        public long countBillableCharacters(String ssml) {
+            return 1;
+        }
+
+        @Override
+        public double getCostForCharacters(long billableCharacters) {
+            return billableCharacters;
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testRateLimitedConnectionPassesRequestsToTheNextOne() throws SpeechSynthesisException {
+        final AtomicLong clock = new AtomicLong();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(clock::get, 1);
+
+        // Throttle the preferred connection and let its cooldown run out. It is healthy again, but only allowed a
+        // request every few seconds.
+        rateLimiter.onThrottled();
+        clock.set(2);
+
+        final RecordingSynthesizer preferred = new RecordingSynthesizer("preferred");
+        final RecordingSynthesizer fallback = new RecordingSynthesizer("fallback");
+
+        final CompoundSynthesizer synthesizer = new CompoundSynthesizer(List.of(
+            new SynthesizerConnection(preferred, 1, 0, rateLimiter),
+            new SynthesizerConnection(fallback)), false);
+
+        for (int i = 0; i < 3; i++) {
+            synthesizer.synthesizeSsmlToFile("<speak/>", "chunk.mp3");
+        }
+
+        assertEquals(0, preferred.getRequestCount());
+        assertEquals(3, fallback.getRequestCount());
+    }
+
+    @Test
+    public void testRejectedRequestsDontFailOverOrTripBreakers() {
+        final List<RecordingSynthesizer> synthesizers = List.of(new RecordingSynthesizer("first"), new RecordingSynthesizer("second"));
+        final List<SynthesizerConnection> connections = new ArrayList<>();
+
+        for (RecordingSynthesizer synthesizer : synthesizers) {
+            connections.add(new SynthesizerConnection(new SpeechSynthesizer() {
+                @Override
+                public String getDisplayName() {
+                    return synthesizer.getDisplayName();
+                }
+
+                @Override
+                public void synthesizeSsmlToFile(String ssml, String outputFilePath) throws SpeechSynthesisException {
+                    synthesizer.synthesizeSsmlToFile(ssml, outputFilePath);
+                    throw new SpeechSynthesisRequestException("Invalid SSML");
+                }
+            }));
+        }
+
+        final CompoundSynthesizer synthesizer = new CompoundSynthesizer(connections, false);
+
+        for (int i = 0; i < 20; i++) {
+            try {
+                synthesizer.synthesizeSsmlToFile("<speak>", "chunk.mp3");
+                fail("The request should have been rejected.");
+            } catch (SpeechSynthesisException e) {
+                assertTrue(e instanceof SpeechSynthesisRequestException);
+            }
+        }
+
+        assertEquals(20, synthesizers.get(0).getRequestCount());
+        assertEquals(0, synthesizers.get(1).getRequestCount());
+        connections.forEach(x -> assertEquals(CircuitBreaker.State.Closed, x.getCircuitBreaker().getState()));
+    }
+
+    @Test(timeout = 10000)
+    public void testHedgesAreChargedAgainstTheBudget() throws SpeechSynthesisException, InterruptedException {
+        for (double maxCost : new double[] { 0, 1000 }) {
+            final HedgeRace race = new HedgeRace();
+            final RacingSynthesizer first = new RacingSynthesizer("first", race);
+            final RacingSynthesizer second = new RacingSynthesizer("second", race);
+            final CostBudget budget = new RacingBudget(maxCost, race);
+
+            final CompoundSynthesizer synthesizer = new CompoundSynthesizer(List.of(
+                new SynthesizerConnection(first),
+                new SynthesizerConnection(second)), false);
+            synthesizer.enableHedging(50, 1);
+            synthesizer.setCostBudget(budget, new FlatCostEstimator());
+
+            // Fill in exactly the latencies hedging needs, so none of these requests can be hedged.
+            for (int i = 0; i < MIN_LATENCY_SAMPLES; i++) {
+                synthesizer.synthesizeSsmlToStream("<speak/>", "chunk.mp3", new ByteArrayOutputStream(), new NullProgressListener());
+            }
+
+            race.holdNextRequest();
+            synthesizer.synthesizeSsmlToStream("<speak/>", "chunk.mp3", new ByteArrayOutputStream(), new NullProgressListener());
+
+            // The hedge may lose its race and settle its cost after the request returns.
+            while (budget.getReservedCost() > 0) {
+                Thread.sleep(1);
+            }
+
+            final long hedgesSent = first.startedRequests.get() + second.startedRequests.get() - (MIN_LATENCY_SAMPLES + 1);
+
+            // No hedge fits in an empty budget, so none are sent. Otherwise the held request is hedged.
+            assertEquals(maxCost == 0 ? 0 : 1, hedgesSent);
+
+            // Every hedge that was sent was paid for, including ones stopped because the other attempt won.
+            assertEquals(hedgesSent, budget.getSpentCost(), 1e-9);
+            synthesizer.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testHedgingDelayComesFromRequestsOfSimilarSize() throws SpeechSynthesisException {
+        final HedgeRace race = new HedgeRace();
+        final RacingSynthesizer first = new RacingSynthesizer("first", race);
+        final RacingSynthesizer second = new RacingSynthesizer("second", race);
+
+        final CompoundSynthesizer synthesizer = new CompoundSynthesizer(List.of(
+            new SynthesizerConnection(first),
+            new SynthesizerConnection(second)), false);
+        synthesizer.enableHedging(50, 1);
+
+        for (int i = 0; i < MIN_LATENCY_SAMPLES; i++) {
+            synthesizer.synthesizeSsmlToStream("<speak/>", "chunk.mp3", new ByteArrayOutputStream(), new NullProgressListener());
+        }
+
+        // Short requests say nothing about how long a long one takes, so a long request isn't hedged yet and runs on
+        // the calling thread.
+        synthesizer.synthesizeSsmlToStream("<speak>" + "x".repeat(1000) + "</speak>", "file.mp3", new ByteArrayOutputStream(), new NullProgressListener());
+        assertEquals(Thread.currentThread(), first.lastThread);
+
+        // A short request is, so its first attempt runs on a hedging thread. Connections are tried in priority order,
+        // so the first attempt goes to the first connection.
+        synthesizer.synthesizeSsmlToStream("<speak/>", "chunk.mp3", new ByteArrayOutputStream(), new NullProgressListener());
+        assertNotEquals(Thread.currentThread(), first.lastThread);
+
+        synthesizer.close();
+    }
+
+    @Test
+    public void testStreamsWithoutTemporaryFiles() throws SpeechSynthesisException, IOException {
+        final String ssml = "<speak><p>Some text to read aloud.</p></speak>";
+        final Path workDirectory = Files.createTempDirectory("lilytts-compound-test");
+
+        try {
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            makeSimulatedSynthesizer("expected").synthesizeSsmlToStream(ssml, "expected.mp3", expected, new NullProgressListener());
+
+            final CompoundSynthesizer unhedged = CompoundSynthesizer.tryInPriorityOrder(List.of(makeSimulatedSynthesizer("only")));
+
+            // Hedging only starts once enough latencies have been seen, so send enough requests to get there.
+            final CompoundSynthesizer hedged = CompoundSynthesizer.balanceLoad(List.of(
+                new SynthesizerConnection(makeSimulatedSynthesizer("first")),
+                new SynthesizerConnection(makeSimulatedSynthesizer("second"))));
+            hedged.enableHedging(50, 1);
+
+            for (CompoundSynthesizer synthesizer : List.of(unhedged, hedged)) {
+                for (int i = 0; i < 40; i++) {
+                    final File outputFile = workDirectory.resolve("chunk " + i + ".mp3").toFile();
+                    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+                    synthesizer.synthesizeSsmlToStream(ssml, outputFile.getAbsolutePath(), output, new NullProgressListener());
+
+                    // Only the winning attempt's audio is written.
+                    assertArrayEquals(expected.toByteArray(), output.toByteArray());
+                }
+
+                synthesizer.close();
+            }
+
+            try (Stream<Path> files = Files.list(workDirectory)) {
+                assertEquals(List.of(), files.toList());
+            }
+        } finally {
+            Files.delete(workDirectory);
+        }
+    }
+
+    private static SpeechSynthesizer makeSimulatedSynthesizer(String displayName) {
+        return new StreamOnlySynthesizer(SimulatedSynthesizer.builder()
+            .withDisplayName(displayName)
+            .withLatency(2, 1)
+            .build());
+    }
+}
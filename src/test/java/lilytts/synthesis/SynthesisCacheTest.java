@@ -0,0 +1,99 @@
+package lilytts.synthesis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class SynthesisCacheTest {
+    private static final String SSML = "<speak><voice name=\"en-US-JennyNeural\">Hello.</voice></speak>";
+
+    @Test
+    public void testKeyCoversSsmlAndOutputFormat() {
+        final String key = SynthesisCache.getKey(SSML, "mp3");
+
+        assertEquals(key, SynthesisCache.getKey(SSML, "mp3"));
+        assertNotEquals(key, SynthesisCache.getKey(SSML, "wav"));
+        assertNotEquals(key, SynthesisCache.getKey(SSML.replace("Hello", "Goodbye"), "mp3"));
+        assertNotEquals(key, SynthesisCache.getKey(SSML.replace("JennyNeural", "GuyNeural"), "mp3"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntries() throws IOException {
+        final Path cacheDirectory = Files.createTempDirectory("lilytts-cache-test");
+
+        try {
+            // Room for two ten byte entries, but not three.
+            final SynthesisCache cache = new SynthesisCache(cacheDirectory.toFile(), 25);
+
+            put(cache, "first", "0123456789");
+            put(cache, "second", "0123456789");
+
+            // The first entry was added longest ago, but reading it makes the second one the least recently used.
+            cacheDirectory.resolve("first.mp3").toFile().setLastModified(1000);
+            cacheDirectory.resolve("second.mp3").toFile().setLastModified(2000);
+            open(cache, "first");
+
+            put(cache, "third", "0123456789");
+
+            assertEquals(1, cache.getEvictionCount());
+            assertNull(cache.open("second"));
+            assertEquals("0123456789", open(cache, "first"));
+            assertEquals("0123456789", open(cache, "third"));
+        } finally {
+            deleteDirectory(cacheDirectory);
+        }
+    }
+
+    @Test
+    public void testKeepsNewEntryLargerThanTheLimit() throws IOException {
+        final Path cacheDirectory = Files.createTempDirectory("lilytts-cache-test");
+
+        try {
+            final SynthesisCache cache = new SynthesisCache(cacheDirectory.toFile(), 5);
+
+            put(cache, "first", "0123456789");
+
+            assertEquals(0, cache.getEvictionCount());
+            assertEquals("0123456789", open(cache, "first"));
+        } finally {
+            deleteDirectory(cacheDirectory);
+        }
+    }
+
+    private static void put(SynthesisCache cache, String key, String audio) throws IOException {
+        final File tempFile = cache.createTempFile();
+        Files.writeString(tempFile.toPath(), audio, StandardCharsets.UTF_8);
+
+        try (InputStream input = cache.put(key, tempFile)) {
+            assertNotNull(input);
+        }
+    }
+
+    private static String open(SynthesisCache cache, String key) throws IOException {
+        try (InputStream input = cache.open(key)) {
+            assertNotNull(input);
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(directory);
+    }
+}